@@ -0,0 +1,281 @@
+package com.example.android.sunshine.Data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.sunshine.Data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * A forecast for consecutive days, stored column by column in primitive arrays instead of one
+ * object per day. The parser fills it once through a {@link Builder}; after that it is never
+ * modified, so the UI, cache and database code can share the same instance.
+ */
+public final class ForecastBatch {
+
+    private final int mCount;
+
+    private final long[] mDates;
+    private final double[] mMinTemps;
+    private final double[] mMaxTemps;
+    private final double[] mPressures;
+    private final double[] mHumidities;
+    private final double[] mWindSpeeds;
+    private final double[] mWindDirections;
+    private final int[] mWeatherIds;
+
+    private ForecastBatch(Builder builder) {
+        mCount = builder.mCount;
+        mDates = Arrays.copyOf(builder.mDates, mCount);
+        mMinTemps = Arrays.copyOf(builder.mMinTemps, mCount);
+        mMaxTemps = Arrays.copyOf(builder.mMaxTemps, mCount);
+        mPressures = Arrays.copyOf(builder.mPressures, mCount);
+        mHumidities = Arrays.copyOf(builder.mHumidities, mCount);
+        mWindSpeeds = Arrays.copyOf(builder.mWindSpeeds, mCount);
+        mWindDirections = Arrays.copyOf(builder.mWindDirections, mCount);
+        mWeatherIds = Arrays.copyOf(builder.mWeatherIds, mCount);
+    }
+
+    /**
+     * @return The number of days in this forecast.
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * @param day Index of the day, 0 is the first day of the forecast.
+     * @return The normalized UTC date of the day in milliseconds.
+     */
+    public long getDate(int day) {
+        return mDates[day];
+    }
+
+    public double getMinTemp(int day) {
+        return mMinTemps[day];
+    }
+
+    public double getMaxTemp(int day) {
+        return mMaxTemps[day];
+    }
+
+    public double getPressure(int day) {
+        return mPressures[day];
+    }
+
+    public double getHumidity(int day) {
+        return mHumidities[day];
+    }
+
+    public double getWindSpeed(int day) {
+        return mWindSpeeds[day];
+    }
+
+    public double getWindDirection(int day) {
+        return mWindDirections[day];
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    /**
+     * Compares one day of this forecast with one day of another forecast.
+     *
+     * @param day      Index of the day in this forecast.
+     * @param other    The other forecast.
+     * @param otherDay Index of the day in the other forecast.
+     * @return true if both days have the same date and the same values.
+     */
+    public boolean isSameDay(int day, ForecastBatch other, int otherDay) {
+        return mDates[day] == other.mDates[otherDay]
+                && mWeatherIds[day] == other.mWeatherIds[otherDay]
+                && mMinTemps[day] == other.mMinTemps[otherDay]
+                && mMaxTemps[day] == other.mMaxTemps[otherDay]
+                && mPressures[day] == other.mPressures[otherDay]
+                && mHumidities[day] == other.mHumidities[otherDay]
+                && mWindSpeeds[day] == other.mWindSpeeds[otherDay]
+                && mWindDirections[day] == other.mWindDirections[otherDay];
+    }
+
+    /**
+     * Two batches are equal when they hold the same days with the same values.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ForecastBatch)) {
+            return false;
+        }
+        ForecastBatch other = (ForecastBatch) o;
+        return mCount == other.mCount
+                && Arrays.equals(mDates, other.mDates)
+                && Arrays.equals(mWeatherIds, other.mWeatherIds)
+                && Arrays.equals(mMinTemps, other.mMinTemps)
+                && Arrays.equals(mMaxTemps, other.mMaxTemps)
+                && Arrays.equals(mPressures, other.mPressures)
+                && Arrays.equals(mHumidities, other.mHumidities)
+                && Arrays.equals(mWindSpeeds, other.mWindSpeeds)
+                && Arrays.equals(mWindDirections, other.mWindDirections);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(mDates);
+        result = 31 * result + Arrays.hashCode(mWeatherIds);
+        result = 31 * result + Arrays.hashCode(mMinTemps);
+        result = 31 * result + Arrays.hashCode(mMaxTemps);
+        return result;
+    }
+
+    /**
+     * Converts this batch into rows for the weather table.
+     *
+     * @return One ContentValues per day, in order.
+     */
+    public ContentValues[] toContentValues() {
+        return toContentValues(null);
+    }
+
+    /**
+     * Converts this batch into rows for the weather table, tagged with the location they
+     * belong to.
+     *
+     * @param location The location query the forecast was fetched for, or null to leave the
+     *                 location column out.
+     * @return One ContentValues per day, in order.
+     */
+    public ContentValues[] toContentValues(String location) {
+        ContentValues[] weatherContentValues = new ContentValues[mCount];
+        for (int i = 0; i < mCount; i++) {
+            ContentValues weatherValues = new ContentValues();
+            if (location != null) {
+                weatherValues.put(WeatherEntry.COLUMN_LOCATION, location);
+            }
+            weatherValues.put(WeatherEntry.COLUMN_DATE, mDates[i]);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, mHumidities[i]);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, mPressures[i]);
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[i]);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, mWindDirections[i]);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[i]);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[i]);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[i]);
+            weatherContentValues[i] = weatherValues;
+        }
+        return weatherContentValues;
+    }
+
+    /**
+     * Reads every row of the cursor into a batch. The cursor must contain all of the weather
+     * columns; its position is moved but it is not closed.
+     *
+     * @param cursor Rows from the weather table, ordered by date.
+     * @return The forecast held by the cursor.
+     */
+    public static ForecastBatch fromCursor(Cursor cursor) {
+        int dateIndex = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_DATE);
+        int minIndex = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_MIN_TEMP);
+        int maxIndex = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_MAX_TEMP);
+        int pressureIndex = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_PRESSURE);
+        int humidityIndex = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_HUMIDITY);
+        int windSpeedIndex = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_WIND_SPEED);
+        int degreesIndex = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_DEGREES);
+        int weatherIdIndex = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_WEATHER_ID);
+
+        Builder builder = new Builder(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            builder.add(cursor.getLong(dateIndex),
+                    cursor.getDouble(minIndex),
+                    cursor.getDouble(maxIndex),
+                    cursor.getDouble(pressureIndex),
+                    cursor.getDouble(humidityIndex),
+                    cursor.getDouble(windSpeedIndex),
+                    cursor.getDouble(degreesIndex),
+                    cursor.getInt(weatherIdIndex));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collects days one at a time and produces an immutable {@link ForecastBatch}.
+     */
+    public static final class Builder {
+
+        private int mCount;
+
+        private long[] mDates;
+        private double[] mMinTemps;
+        private double[] mMaxTemps;
+        private double[] mPressures;
+        private double[] mHumidities;
+        private double[] mWindSpeeds;
+        private double[] mWindDirections;
+        private int[] mWeatherIds;
+
+        /**
+         * @param expectedDays How many days the caller expects to add. The builder grows if
+         *                     more are added, this only avoids resizing in the common case.
+         */
+        public Builder(int expectedDays) {
+            int capacity = Math.max(expectedDays, 1);
+            mDates = new long[capacity];
+            mMinTemps = new double[capacity];
+            mMaxTemps = new double[capacity];
+            mPressures = new double[capacity];
+            mHumidities = new double[capacity];
+            mWindSpeeds = new double[capacity];
+            mWindDirections = new double[capacity];
+            mWeatherIds = new int[capacity];
+        }
+
+        /**
+         * @return The number of days added so far.
+         */
+        public int size() {
+            return mCount;
+        }
+
+        /**
+         * Appends one day to the end of the forecast.
+         *
+         * @return This Builder, to allow chaining.
+         */
+        public Builder add(long date, double minTemp, double maxTemp, double pressure,
+                           double humidity, double windSpeed, double windDirection,
+                           int weatherId) {
+            if (mCount == mDates.length) {
+                grow();
+            }
+            mDates[mCount] = date;
+            mMinTemps[mCount] = minTemp;
+            mMaxTemps[mCount] = maxTemp;
+            mPressures[mCount] = pressure;
+            mHumidities[mCount] = humidity;
+            mWindSpeeds[mCount] = windSpeed;
+            mWindDirections[mCount] = windDirection;
+            mWeatherIds[mCount] = weatherId;
+            mCount++;
+            return this;
+        }
+
+        public ForecastBatch build() {
+            return new ForecastBatch(this);
+        }
+
+        private void grow() {
+            int capacity = mDates.length * 2;
+            mDates = Arrays.copyOf(mDates, capacity);
+            mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+            mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+            mPressures = Arrays.copyOf(mPressures, capacity);
+            mHumidities = Arrays.copyOf(mHumidities, capacity);
+            mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+            mWindDirections = Arrays.copyOf(mWindDirections, capacity);
+            mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        }
+    }
+}
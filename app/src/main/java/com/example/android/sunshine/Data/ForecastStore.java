@@ -0,0 +1,122 @@
+package com.example.android.sunshine.Data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+
+import com.example.android.sunshine.Data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.Utilities.SunshineDateUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Reads and writes forecasts in the local weather database through {@link WeatherProvider}.
+ * Neither method may be called on the main thread.
+ */
+public final class ForecastStore {
+
+    /* The columns needed to rebuild a ForecastBatch */
+    private static final String[] FORECAST_PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+    };
+
+    private static final String SELECTION_LOCATION_FROM_DATE =
+            WeatherEntry.COLUMN_LOCATION + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?";
+
+    private static final String SELECTION_LOCATION =
+            WeatherEntry.COLUMN_LOCATION + " = ?";
+
+    private ForecastStore() {
+    }
+
+    /**
+     * Returns the stored forecast for the location, starting today.
+     *
+     * @param context  Context used to reach the ContentResolver
+     * @param location The location query the forecast was saved under
+     * @return The stored forecast, or null if nothing is stored for today onwards.
+     */
+    public static ForecastBatch load(Context context, String location) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                FORECAST_PROJECTION,
+                SELECTION_LOCATION_FROM_DATE,
+                new String[]{location, Long.toString(getToday())},
+                WeatherEntry.COLUMN_DATE + " ASC");
+
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (cursor.getCount() == 0) {
+                return null;
+            }
+            return ForecastBatch.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Replaces the stored forecast for the location with this one, in one transaction. Every
+     * row of the location whose day is not in the new forecast is dropped, including the days
+     * that are already in the past.
+     *
+     * @param context  Context used to reach the ContentResolver
+     * @param location The location query the forecast was fetched for
+     * @param forecast The forecast to save
+     * @throws IOException If the forecast could not be saved; the stored one is then left as
+     *                     it was.
+     */
+    public static void save(Context context, String location, ForecastBatch forecast)
+            throws IOException {
+        int days = forecast.size();
+        String[] selectionArgs = new String[days + 1];
+        StringBuilder selection = new StringBuilder(SELECTION_LOCATION);
+        selectionArgs[0] = location;
+        if (days > 0) {
+            selection.append(" AND ").append(WeatherEntry.COLUMN_DATE).append(" NOT IN (");
+            for (int day = 0; day < days; day++) {
+                selection.append(day == 0 ? "?" : ",?");
+                selectionArgs[day + 1] = Long.toString(forecast.getDate(day));
+            }
+            selection.append(')');
+        }
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(days + 1);
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(selection.toString(), selectionArgs)
+                .build());
+        /* Rows for the same days are replaced by the table's ON CONFLICT REPLACE */
+        for (ContentValues values : forecast.toContentValues(location)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
+
+        try {
+            context.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            throw new IOException("Could not save the forecast for " + location, e);
+        }
+    }
+
+    /**
+     * @return The normalized UTC date of today, the same way the parser computes day 0.
+     */
+    private static long getToday() {
+        long utcDate = SunshineDateUtils.getUTCDateFromLocal(System.currentTimeMillis());
+        return SunshineDateUtils.normalizeDate(utcDate);
+    }
+}
@@ -6,6 +6,14 @@ import android.content.SharedPreferences;
 import androidx.preference.PreferenceManager;
 
 import com.example.android.sunshine.R;
+import com.example.android.sunshine.Utilities.GeoHash;
+import com.example.android.sunshine.Utilities.SunshineDateUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SunshinePreferences {
 
@@ -26,12 +34,45 @@ public class SunshinePreferences {
      * Before you implement methods to return your REAL preference for location,
      * we provide some default values to work with.
      */
-    private static final String DEFAULT_WEATHER_LOCATION = "94043,USA";
     private static final double[] DEFAULT_WEATHER_COORDINATES = {37.4284, 122.0724};
 
+    /*
+     * Geohash characters used to bucket coordinates, 6 is a cell of about 1.2 x 0.6 km. Every
+     * position inside a cell shares one forecast, so moving a few hundred meters doesn't make
+     * a new request.
+     */
+    public static final int LOCATION_BUCKET_PRECISION = 6;
+
+    /* Separates the locations in the saved locations preference */
+    private static final String SAVED_LOCATIONS_SEPARATOR = ";";
+
     private static final String DEFAULT_MAP_LOCATION =
             "1600 Amphitheatre Parkway, Mountain View, CA 94043";
 
+    /*
+     * The preferences read on every bind, resolved once. Formatting a row would otherwise
+     * look the SharedPreferences up and read several resource strings each time the units
+     * are needed. Null whenever a preference changed since it was built.
+     */
+    private static volatile Snapshot sSnapshot;
+
+    /* Bumped on every preference change, so a snapshot built concurrently isn't kept */
+    private static final AtomicInteger sPreferencesVersion = new AtomicInteger();
+
+    /*
+     * SharedPreferences only keeps weak references to its listeners, so this one has to be
+     * held here for as long as the process lives.
+     */
+    private static final SharedPreferences.OnSharedPreferenceChangeListener sSnapshotInvalidator =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    invalidate();
+                }
+            };
+
+    private static boolean sSnapshotInvalidatorRegistered;
+
     /**
      * Helper method to handle setting location details in Preferences (City Name, Latitude,
      * Longitude)
@@ -42,7 +83,16 @@ public class SunshinePreferences {
      * @param lon      The longitude of the city
      */
     static public void setLocationDetails(Context c, String cityName, double lat, double lon) {
-        /** This will be implemented in a future lesson **/
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putString(PREF_CITY_NAME, cityName);
+        putDouble(editor, PREF_COORD_LAT, lat);
+        putDouble(editor, PREF_COORF_LONG, lon);
+        editor.apply();
+
+        Snapshot snapshot = getSnapshot(c);
+        publishSnapshot(new Snapshot(snapshot.metric, snapshot.location,
+                new double[]{lat, lon}, true));
     }
 
     /**
@@ -55,7 +105,16 @@ public class SunshinePreferences {
      * @param lon             The longitude of the city
      */
     static public void setLocation(Context c, String locationSetting, double lat, double lon) {
-        /** This will be implemented in a future lesson **/
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putString(c.getString(R.string.pref_location_key), locationSetting);
+        putDouble(editor, PREF_COORD_LAT, lat);
+        putDouble(editor, PREF_COORF_LONG, lon);
+        editor.apply();
+
+        Snapshot snapshot = getSnapshot(c);
+        publishSnapshot(new Snapshot(snapshot.metric, locationSetting,
+                new double[]{lat, lon}, true));
     }
 
     /**
@@ -64,23 +123,90 @@ public class SunshinePreferences {
      * @param c Context used to get the SharedPreferences
      */
     static public void resetLocationCoordinates(Context c) {
-        /** This will be implemented in a future lesson **/
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.remove(PREF_COORD_LAT);
+        editor.remove(PREF_COORF_LONG);
+        editor.apply();
+
+        Snapshot snapshot = getSnapshot(c);
+        publishSnapshot(new Snapshot(snapshot.metric, snapshot.location,
+                getDefaultWeatherCoordinates(), false));
     }
 
     /**
      * Returns the location currently set in Preferences. The default location this method
-     * will return is "94043,USA", which is Mountain View, California. Mountain View is the
-     * home of the headquarters of the Googleplex!
+     * will return is Mountain View, California, the home of the headquarters of the
+     * Googleplex!
      *
      * @param context Context used to get the SharedPreferences
      * @return Location The current user has set in SharedPreferences. Will default to
-     * "94043,USA" if SharedPreferences have not been implemented yet.
+     * the default value of the location preference if the user hasn't set one.
      */
     public static String getPreferredWeatherLocation(Context context) {
+        return getSnapshot(context).location;
+    }
+
+    /**
+     * Returns the location forecasts are stored and fetched for. When coordinates are known,
+     * this is the geohash key of the cell they fall in, otherwise the preferred location.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @return The location to pass to the sync and the forecast store.
+     */
+    public static String getForecastLocation(Context context) {
+        return getSnapshot(context).forecastLocation;
+    }
+
+    /**
+     * Returns every location the user tracks: the forecast location first, followed by the
+     * extra locations saved in Preferences, without duplicates.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @return The locations to keep forecasts for.
+     */
+    public static List<String> getSavedWeatherLocations(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String keyForLocation = context.getString(R.string.pref_location_key);
-        String defaultLocation = context.getString(R.string.pref_location_default);
-        return getDefaultWeatherLocation();
+        String keyForSavedLocations = context.getString(R.string.pref_saved_locations_key);
+        String savedLocations = prefs.getString(keyForSavedLocations, "");
+
+        Set<String> locations = new LinkedHashSet<>();
+        locations.add(getForecastLocation(context));
+        for (String location : savedLocations.split(SAVED_LOCATIONS_SEPARATOR)) {
+            String trimmed = location.trim();
+            if (!trimmed.isEmpty()) {
+                locations.add(trimmed);
+            }
+        }
+        return new ArrayList<>(locations);
+    }
+
+    /**
+     * Returns true if the user tracks other locations besides the forecast location.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @return true if forecasts should be kept for several locations
+     */
+    public static boolean isMultiLocationEnabled(Context context) {
+        return getSavedWeatherLocations(context).size() > 1;
+    }
+
+    /**
+     * Returns how often forecasts should be refreshed in the background.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @return The interval in milliseconds.
+     */
+    public static long getSyncIntervalMillis(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String keyForInterval = context.getString(R.string.pref_sync_interval_key);
+        String defaultInterval = context.getString(R.string.pref_sync_interval_default);
+        String hours = prefs.getString(keyForInterval, defaultInterval);
+        try {
+            return Long.parseLong(hours) * SunshineDateUtils.HOUR_IN_MILLIS;
+        } catch (NumberFormatException e) {
+            return Long.parseLong(defaultInterval) * SunshineDateUtils.HOUR_IN_MILLIS;
+        }
     }
 
     /**
@@ -90,18 +216,7 @@ public class SunshinePreferences {
      * @return true If metric display should be used
      */
     public static boolean isMetric(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String keyForUnits = context.getString(R.string.pref_units_metric);
-        String defaultUnits = context.getString(R.string.pref_units_metric);
-        String preferredUnits = prefs.getString(keyForUnits,defaultUnits);
-        String metric = context.getString(R.string.pref_units_metric);
-        boolean userPrefersMetric;
-        if(metric.equals(preferredUnits)){
-            userPrefersMetric = true;
-        } else {
-            userPrefersMetric = false;
-        }
-        return userPrefersMetric;
+        return getSnapshot(context).metric;
     }
 
     /**
@@ -113,7 +228,7 @@ public class SunshinePreferences {
      * @return An array containing the two coordinate values.
      */
     public static double[] getLocationCoordinates(Context context) {
-        return getDefaultWeatherCoordinates();
+        return getSnapshot(context).coordinates.clone();
     }
 
     /**
@@ -124,13 +239,12 @@ public class SunshinePreferences {
      * @return true if lat/long are set
      */
     public static boolean isLocationLatLonAvailable(Context context) {
-        /** This will be implemented in a future lesson **/
-        return false;
+        return getSnapshot(context).latLonAvailable;
     }
 
-    private static String getDefaultWeatherLocation() {
-        /** This will be implemented in a future lesson **/
-        return DEFAULT_WEATHER_LOCATION;
+    /* The same default the settings screen shows, so opening it doesn't change the location */
+    private static String getDefaultWeatherLocation(Context context) {
+        return context.getString(R.string.pref_location_default);
     }
 
     public static double[] getDefaultWeatherCoordinates() {
@@ -138,4 +252,107 @@ public class SunshinePreferences {
         return DEFAULT_WEATHER_COORDINATES;
     }
 
+    /**
+     * Drops the resolved preferences, so the next read goes to SharedPreferences again. This
+     * happens by itself on every change, but SharedPreferences calls its listeners in no
+     * particular order: a listener that reads preferences right away must call this first.
+     */
+    public static void invalidate() {
+        synchronized (SunshinePreferences.class) {
+            sPreferencesVersion.incrementAndGet();
+            sSnapshot = null;
+        }
+    }
+
+    /**
+     * Returns the resolved preferences, reading them only if one changed since the last call.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @return The current preferences.
+     */
+    private static Snapshot getSnapshot(Context context) {
+        Snapshot snapshot = sSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        synchronized (SunshinePreferences.class) {
+            if (!sSnapshotInvalidatorRegistered) {
+                prefs.registerOnSharedPreferenceChangeListener(sSnapshotInvalidator);
+                sSnapshotInvalidatorRegistered = true;
+            }
+        }
+
+        int version = sPreferencesVersion.get();
+        boolean latLonAvailable = prefs.contains(PREF_COORD_LAT) && prefs.contains(PREF_COORF_LONG);
+        double[] coordinates = latLonAvailable
+                ? new double[]{getDouble(prefs, PREF_COORD_LAT), getDouble(prefs, PREF_COORF_LONG)}
+                : getDefaultWeatherCoordinates();
+        String location = prefs.getString(context.getString(R.string.pref_location_key),
+                getDefaultWeatherLocation(context));
+        snapshot = new Snapshot(readMetric(context, prefs), location, coordinates,
+                latLonAvailable);
+        /* Checked and stored under the lock, so an invalidation in between can't be lost */
+        synchronized (SunshinePreferences.class) {
+            if (version == sPreferencesVersion.get()) {
+                sSnapshot = snapshot;
+            }
+        }
+        return snapshot;
+    }
+
+    /*
+     * Writes the values a setter just applied straight into the snapshot. apply() updates the
+     * SharedPreferences in memory at once but only notifies the listeners later, on the main
+     * thread, so until then readers would otherwise keep seeing the old values.
+     */
+    private static void publishSnapshot(Snapshot snapshot) {
+        synchronized (SunshinePreferences.class) {
+            sPreferencesVersion.incrementAndGet();
+            sSnapshot = snapshot;
+        }
+    }
+
+    /* Doubles are kept as their raw long bits, SharedPreferences has no double type */
+    private static double getDouble(SharedPreferences prefs, String key) {
+        return Double.longBitsToDouble(prefs.getLong(key, 0));
+    }
+
+    private static void putDouble(SharedPreferences.Editor editor, String key, double value) {
+        editor.putLong(key, Double.doubleToRawLongBits(value));
+    }
+
+    private static boolean readMetric(Context context, SharedPreferences prefs) {
+        String keyForUnits = context.getString(R.string.pref_units_key);
+        String defaultUnits = context.getString(R.string.pref_units_metric);
+        String preferredUnits = prefs.getString(keyForUnits, defaultUnits);
+        String metric = context.getString(R.string.pref_units_metric);
+        return metric.equals(preferredUnits);
+    }
+
+    /**
+     * The preferences the app reads on hot paths, resolved from SharedPreferences and
+     * resources once. Immutable.
+     */
+    private static final class Snapshot {
+        final boolean metric;
+        final String location;
+        final double[] coordinates;
+        final boolean latLonAvailable;
+        final String forecastLocation;
+
+        Snapshot(boolean metric, String location, double[] coordinates,
+                 boolean latLonAvailable) {
+            this.metric = metric;
+            this.location = location;
+            this.coordinates = coordinates;
+            this.latLonAvailable = latLonAvailable;
+            this.forecastLocation = latLonAvailable
+                    ? GeoHash.toLocationKey(coordinates[0], coordinates[1],
+                    LOCATION_BUCKET_PRECISION)
+                    : location;
+        }
+    }
+
 }
@@ -0,0 +1,71 @@
+package com.example.android.sunshine.Data;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Defines table and column names for the weather database. This class is not necessary, but
+ * keeps the code organized.
+ */
+public class WeatherContract {
+
+    /*
+     * The "Content authority" is a name for the entire content provider, similar to the
+     * relationship between a domain name and its website. We use the package name of the app,
+     * which is guaranteed to be unique on the device.
+     */
+    public static final String CONTENT_AUTHORITY = "com.example.android.sunshine";
+
+    /* The base of all URIs which apps will use to contact the content provider for Sunshine. */
+    public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
+
+    /* The path appended to BASE_CONTENT_URI to reach the weather table. */
+    public static final String PATH_WEATHER = "weather";
+
+    /* Inner class that defines the table contents of the weather table */
+    public static final class WeatherEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the Weather table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_WEATHER)
+                .build();
+
+        /* Used internally as the name of our weather table. */
+        public static final String TABLE_NAME = "weather";
+
+        /*
+         * The location query the forecast was fetched for. Together with the date it
+         * identifies a row, so several locations can be stored side by side.
+         */
+        public static final String COLUMN_LOCATION = "location";
+
+        /*
+         * The date column will store the UTC date that correlates to the local date for which
+         * each particular weather row represents. It is normalized with
+         * SunshineDateUtils.normalizeDate, so it always points at the start of a day.
+         */
+        public static final String COLUMN_DATE = "date";
+
+        /* Weather ID as returned by API, used to identify the icon to be used */
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        /* Min and max temperatures in °C for the day (stored as floats in the database) */
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        /* Humidity is stored as a float representing percentage */
+        public static final String COLUMN_HUMIDITY = "humidity";
+
+        /* Pressure is stored as a float representing percentage */
+        public static final String COLUMN_PRESSURE = "pressure";
+
+        /* Wind speed is stored as a float representing wind speed in mph */
+        public static final String COLUMN_WIND_SPEED = "wind";
+
+        /*
+         * Degrees are meteorological degrees (e.g, 0 is north, 180 is south).
+         * Stored as floats in the database.
+         */
+        public static final String COLUMN_DEGREES = "degrees";
+    }
+}
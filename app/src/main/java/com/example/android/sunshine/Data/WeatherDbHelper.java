@@ -0,0 +1,74 @@
+package com.example.android.sunshine.Data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.example.android.sunshine.Data.WeatherContract.WeatherEntry;
+
+/**
+ * Manages a local database for weather data.
+ */
+public class WeatherDbHelper extends SQLiteOpenHelper {
+
+    /*
+     * This is the name of our database. Database names should be descriptive and end with the
+     * .db extension.
+     */
+    public static final String DATABASE_NAME = "weather.db";
+
+    /*
+     * If you change the database schema, you must increment the database version or the
+     * onUpgrade method will not be called.
+     */
+    private static final int DATABASE_VERSION = 1;
+
+    public WeatherDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Called when the database is created for the first time.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase sqLiteDatabase) {
+
+        /*
+         * There is one row per location and day. The UNIQUE constraint gives us the
+         * (location, date) index that every query uses, and ON CONFLICT REPLACE lets a refresh
+         * simply insert the new forecast over the old one.
+         */
+        final String SQL_CREATE_WEATHER_TABLE =
+                "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+                        WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        WeatherEntry.COLUMN_LOCATION + " TEXT NOT NULL, " +
+                        WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                        WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                        WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                        " UNIQUE (" + WeatherEntry.COLUMN_LOCATION + ", " +
+                        WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+    }
+
+    /**
+     * The weather table only caches data from the server, so on upgrade we simply drop it and
+     * let the next refresh fill it again.
+     *
+     * @param sqLiteDatabase Database that is being upgraded
+     * @param oldVersion     The old database version
+     * @param newVersion     The new database version
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        onCreate(sqLiteDatabase);
+    }
+}
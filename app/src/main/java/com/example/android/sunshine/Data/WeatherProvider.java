@@ -0,0 +1,231 @@
+package com.example.android.sunshine.Data;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.android.sunshine.Data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+/**
+ * This class serves as the ContentProvider for all of Sunshine's data. It lets the rest of the
+ * app read and bulk insert forecasts without knowing about the underlying database.
+ */
+public class WeatherProvider extends ContentProvider {
+
+    /* Used to match the weather table URI, the only one we currently serve */
+    public static final int CODE_WEATHER = 100;
+
+    private static final UriMatcher sUriMatcher = buildUriMatcher();
+
+    private WeatherDbHelper mOpenHelper;
+
+    /* Set while applyBatch runs on this thread, so observers are notified once at the end */
+    private final ThreadLocal<Boolean> mInBatch = new ThreadLocal<>();
+
+    /**
+     * Creates the UriMatcher that will match each URI to the CODE_WEATHER constant defined
+     * above.
+     *
+     * @return A UriMatcher that correctly matches the constants for CODE_WEATHER
+     */
+    public static UriMatcher buildUriMatcher() {
+        final UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
+        final String authority = WeatherContract.CONTENT_AUTHORITY;
+
+        /* This URI is content://com.example.android.sunshine/weather/ */
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER, CODE_WEATHER);
+
+        return matcher;
+    }
+
+    /**
+     * The database itself is opened lazily by the helper, so onCreate stays cheap and doesn't
+     * slow down the start of the app.
+     */
+    @Override
+    public boolean onCreate() {
+        mOpenHelper = new WeatherDbHelper(getContext());
+        return true;
+    }
+
+    /**
+     * Inserts all of the given rows in a single transaction. Doing them one by one would cost
+     * one journal write per day.
+     *
+     * @param uri    The content:// URI of the insertion request.
+     * @param values An array of sets of column_name/value pairs to add to the database.
+     * @return The number of values that were inserted.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER:
+                db.beginTransaction();
+                int rowsInserted = 0;
+                try {
+                    for (ContentValues value : values) {
+                        long _id = db.insert(WeatherEntry.TABLE_NAME, null, value);
+                        if (_id != -1) {
+                            rowsInserted++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                if (rowsInserted > 0) {
+                    getContext().getContentResolver().notifyChange(uri, null);
+                }
+
+                return rowsInserted;
+
+            default:
+                return super.bulkInsert(uri, values);
+        }
+    }
+
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder) {
+
+        Cursor cursor;
+
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+                break;
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        return cursor;
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+
+        int numRowsDeleted;
+
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER:
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherEntry.TABLE_NAME,
+                        selection,
+                        selectionArgs);
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        if (numRowsDeleted != 0) {
+            notifyChange(uri);
+        }
+
+        return numRowsDeleted;
+    }
+
+    /**
+     * Applies all of the operations in a single transaction, so readers never see a forecast
+     * that is half replaced. If any operation fails, none of them are kept.
+     *
+     * @param operations The operations to apply
+     * @return The results of the operations, in order.
+     * @throws OperationApplicationException If an operation failed
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        ContentProviderResult[] results;
+        db.beginTransaction();
+        mInBatch.set(Boolean.TRUE);
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            mInBatch.remove();
+            db.endTransaction();
+        }
+
+        getContext().getContentResolver().notifyChange(WeatherEntry.CONTENT_URI, null);
+        return results;
+    }
+
+    @Override
+    public String getType(@NonNull Uri uri) {
+        throw new RuntimeException("We are not implementing getType in Sunshine.");
+    }
+
+    /**
+     * Inserts a single row. Forecasts arrive as a batch, so this is only meant to be used
+     * from {@link #applyBatch(ArrayList)}, which wraps the rows in one transaction; use
+     * {@link #bulkInsert(Uri, ContentValues[])} otherwise.
+     */
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        long _id;
+
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER:
+                _id = mOpenHelper.getWritableDatabase().insert(
+                        WeatherEntry.TABLE_NAME,
+                        null,
+                        values);
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        if (_id == -1) {
+            return null;
+        }
+        notifyChange(uri);
+        return uri;
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, ContentValues values, String selection,
+                      String[] selectionArgs) {
+        throw new RuntimeException("We are not implementing update in Sunshine");
+    }
+
+    /* Observers are notified by applyBatch once the whole batch is committed */
+    private void notifyChange(Uri uri) {
+        if (mInBatch.get() == null) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+}
@@ -1,18 +1,65 @@
 package com.example.android.sunshine;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.example.android.sunshine.Data.ForecastBatch;
+import com.example.android.sunshine.Data.SunshinePreferences;
+import com.example.android.sunshine.Utilities.SunshineDateUtils;
+import com.example.android.sunshine.Utilities.SunshineWeatherUtils;
+import com.example.android.sunshine.Utilities.WeatherIconCache;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
+    /*
+     * The raw forecast. Nothing in it is formatted; units and dates are turned into text
+     * separately, in mRowText, so a change of units only needs the text to be redone.
+     */
+    private ForecastBatch mWeatherData;
+
+    /*
+     * The text of each row of mWeatherData, already measured and laid out, so binding a row
+     * while scrolling doesn't measure text on the main thread. Null, or null entries, until
+     * they have been computed; those rows are formatted and measured at bind time instead.
+     */
+    private PrecomputedTextCompat[] mRowText;
+
+    /* How the row TextView measures text, taken from the first row that is created */
+    private PrecomputedTextCompat.Params mTextParams;
 
-    private String[] mWeatherData;
+    private Context mAppContext;
+
+    /* The size of the row icons in pixels, 0 until the first row is created */
+    private int mIconSize;
+
+    /*
+     * Diffs between the old and the new forecast, and the row text, are computed here off the
+     * main thread. Only the rows that changed are then re-bound.
+     */
+    private static final Executor sBackgroundExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /*
+     * Bumped by every setWeatherData, so work that finishes after newer data was set is
+     * thrown away instead of being applied on top of it.
+     */
+    private int mGeneration;
 
     /*
      * An on-click handler that we've defined to make it easy for an Activity to interface with
@@ -40,12 +87,129 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
      * This method is used to set the weather forecast(прогноз) on a ForecastAdapter
      * if we've already created one. This is handy(удобно) when we get new data from the web
      * but don't want to create a new ForecastAdapter to display it.
+     * <p>
+     * When there is already a forecast on screen, the new one is diffed against it by day on
+     * a background thread and only the days that changed are updated, so a refresh in which
+     * one day changed re-binds one row. The text of every row is measured on that thread
+     * too. Must be called on the main thread.
      *
      * @param weatherData The new weather data to be displayed.
      */
-    public void setWeatherData(String[] weatherData) {
-        mWeatherData = weatherData;
+    public void setWeatherData(final ForecastBatch weatherData) {
+        final int generation = ++mGeneration;
+        final ForecastBatch oldData = mWeatherData;
+        final Context context = mAppContext;
+        final PrecomputedTextCompat.Params params = mTextParams;
+        final int iconSize = mIconSize;
+
+        if (oldData == weatherData) {
+            return;
+        }
+        if (weatherData == null || (oldData == null && params == null)) {
+            /*
+             * Nothing to diff against and no row to measure text for yet: show the data now.
+             * Row text is computed once the first row has been created.
+             */
+            mWeatherData = weatherData;
+            mRowText = null;
+            notifyDataSetChanged();
+            return;
+        }
+
+        sBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (iconSize > 0) {
+                    preloadIcons(context, weatherData, iconSize);
+                }
+                final PrecomputedTextCompat[] rowText = params == null
+                        ? null : precomputeRowText(context, weatherData, params);
+                final DiffUtil.DiffResult diff = oldData == null
+                        ? null
+                        : DiffUtil.calculateDiff(new ForecastDiffCallback(oldData, weatherData));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mWeatherData = weatherData;
+                        mRowText = rowText;
+                        if (diff == null) {
+                            notifyDataSetChanged();
+                        } else {
+                            diff.dispatchUpdatesTo(ForecastAdapter.this);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Re-formats every row, for when a preference that changes how the forecast is displayed,
+     * like the units, has changed. Must be called on the main thread.
+     */
+    public void onDisplayPreferencesChanged() {
+        /*
+         * Our caller may be notified before the snapshot's own listener, so make sure neither
+         * the rows bound now nor the background formatting read the old units.
+         */
+        SunshinePreferences.invalidate();
+        mRowText = null;
         notifyDataSetChanged();
+        updateRowText();
+    }
+
+    /**
+     * Computes the text of every row of the current forecast in the background, and decodes
+     * their icons. Rows bound before it is done are formatted at bind time.
+     */
+    private void updateRowText() {
+        final int generation = mGeneration;
+        final ForecastBatch weatherData = mWeatherData;
+        final Context context = mAppContext;
+        final PrecomputedTextCompat.Params params = mTextParams;
+        final int iconSize = mIconSize;
+        if (weatherData == null || params == null) {
+            return;
+        }
+
+        sBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                preloadIcons(context, weatherData, iconSize);
+                final PrecomputedTextCompat[] rowText =
+                        precomputeRowText(context, weatherData, params);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        /* The rows on screen already show this text, no need to re-bind them */
+                        if (generation == mGeneration && weatherData == mWeatherData) {
+                            mRowText = rowText;
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private static void preloadIcons(Context context, ForecastBatch weatherData, int iconSize) {
+        WeatherIconCache icons = WeatherIconCache.getInstance(context);
+        for (int i = 0; i < weatherData.size(); i++) {
+            icons.preload(SunshineWeatherUtils.getIconResourceForWeatherCondition(
+                    weatherData.getWeatherId(i)), iconSize);
+        }
+    }
+
+    private static PrecomputedTextCompat[] precomputeRowText(Context context,
+                                                             ForecastBatch weatherData,
+                                                             PrecomputedTextCompat.Params params) {
+        PrecomputedTextCompat[] rowText = new PrecomputedTextCompat[weatherData.size()];
+        for (int i = 0; i < rowText.length; i++) {
+            rowText[i] = PrecomputedTextCompat.create(formatDay(context, weatherData, i), params);
+        }
+        return rowText;
     }
 
     /**
@@ -66,7 +230,15 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         int layoutIdForListItem = R.layout.forecast_list_item;
         LayoutInflater inflater = LayoutInflater.from(context);
         View view = inflater.inflate(layoutIdForListItem, parent, false);
-        return new ForecastAdapterViewHolder(view);
+        ForecastAdapterViewHolder holder = new ForecastAdapterViewHolder(view);
+
+        if (mTextParams == null) {
+            mTextParams = TextViewCompat.getTextMetricsParams(holder.mWeatherTextView);
+            mAppContext = context.getApplicationContext();
+            mIconSize = context.getResources().getDimensionPixelSize(R.dimen.forecast_icon_size);
+            updateRowText();
+        }
+        return holder;
     }
 
     /**
@@ -81,15 +253,78 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
      */
     @Override
     public void onBindViewHolder(@NonNull ForecastAdapterViewHolder holder, int position) {
-        String weatherOfThisDay = mWeatherData[position];
+        int iconResId = SunshineWeatherUtils.getIconResourceForWeatherCondition(
+                mWeatherData.getWeatherId(position));
+        WeatherIconCache.getInstance(holder.itemView.getContext())
+                .load(iconResId, mIconSize, holder.mIconView);
+
+        if (mRowText != null && mRowText[position] != null) {
+            TextViewCompat.setPrecomputedText(holder.mWeatherTextView, mRowText[position]);
+            return;
+        }
 
+        String weatherOfThisDay = formatDay(holder.itemView.getContext(), mWeatherData, position);
         holder.mWeatherTextView.setText(weatherOfThisDay);
     }
 
     @Override
     public int getItemCount() {
         if (null == mWeatherData) return 0;
-        return mWeatherData.length;
+        return mWeatherData.size();
+    }
+
+    /**
+     * Builds the text shown for one day, in the form "Today - Clear - 21°C / 12°C", using the
+     * units the user currently prefers.
+     *
+     * @param context     Context used to read preferences and resources.
+     * @param weatherData The forecast the day belongs to.
+     * @param position    The position of the day within the forecast.
+     * @return The text for that day.
+     */
+    private static String formatDay(Context context, ForecastBatch weatherData, int position) {
+        String date = SunshineDateUtils.getFriendlyDateString(context,
+                weatherData.getDate(position), false);
+        String description = SunshineWeatherUtils.getStringForWeatherCondition(context,
+                weatherData.getWeatherId(position));
+        StringBuilder builder = new StringBuilder(date.length() + description.length() + 24)
+                .append(date).append(" - ").append(description).append(" - ");
+        return SunshineWeatherUtils.appendHighLows(context, builder,
+                weatherData.getMaxTemp(position), weatherData.getMinTemp(position)).toString();
+    }
+
+    /**
+     * Matches the days of two forecasts by date. A day with the same date but different values
+     * is a change, days that only exist in one forecast are insertions or removals.
+     */
+    private static class ForecastDiffCallback extends DiffUtil.Callback {
+        private final ForecastBatch mOld;
+        private final ForecastBatch mNew;
+
+        ForecastDiffCallback(ForecastBatch oldData, ForecastBatch newData) {
+            mOld = oldData;
+            mNew = newData;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.getDate(oldItemPosition) == mNew.getDate(newItemPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.isSameDay(oldItemPosition, mNew, newItemPosition);
+        }
     }
 
     /**
@@ -99,10 +334,12 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
             implements View.OnClickListener {
 
         public final TextView mWeatherTextView;
+        public final ImageView mIconView;
 
         public ForecastAdapterViewHolder(View view) {
             super(view);
             mWeatherTextView = view.findViewById(R.id.tv_weather_data);
+            mIconView = view.findViewById(R.id.iv_weather_icon);
             view.setOnClickListener(this);
         }
 
@@ -112,7 +349,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            String weatherForDay = mWeatherData[adapterPosition];
+            String weatherForDay = formatDay(v.getContext(), mWeatherData, adapterPosition);
             mClickHandler.onClick(weatherForDay);
         }
     }
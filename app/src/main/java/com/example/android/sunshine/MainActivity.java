@@ -2,17 +2,12 @@ package com.example.android.sunshine;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.loader.app.LoaderManager;
-import androidx.loader.content.AsyncTaskLoader;
-import androidx.loader.content.Loader;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import android.annotation.SuppressLint;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.Preference;
 import android.preference.PreferenceManager;
@@ -24,19 +19,20 @@ import android.view.View;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import com.example.android.sunshine.Data.ForecastBatch;
 import com.example.android.sunshine.Data.SunshinePreferences;
-import com.example.android.sunshine.Utilities.NetworkUtils;
-import com.example.android.sunshine.Utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.Sync.ForecastLoadingEngine;
+import com.example.android.sunshine.Sync.SunshineSyncUtils;
 
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 public class MainActivity extends AppCompatActivity
-        implements ForecastAdapter.ForecastAdapterOnClickHandler, LoaderManager.LoaderCallbacks<String[]>,
-        SharedPreferences.OnSharedPreferenceChangeListener {
+        implements ForecastAdapter.ForecastAdapterOnClickHandler,
+        ForecastLoadingEngine.Callback, SharedPreferences.OnSharedPreferenceChangeListener {
 
     private static final String TAG = MainActivity.class.getSimpleName();
 
-    private TextView mWeatherTextView;
     private TextView mErrorMessageDisplay;
 
     private ProgressBar mLoadingIndicator;
@@ -44,7 +40,20 @@ public class MainActivity extends AppCompatActivity
     private static RecyclerView mRecyclerView;
     private static ForecastAdapter mForecastAdapter;
 
-    private static final int FORECAST_LOADER_ID = 0;
+    /* Every load we are waiting for, so they can be cancelled when we go away */
+    private final List<ForecastLoadingEngine.Request> mForecastRequests = new ArrayList<>();
+
+    /*
+     * Whether the current load delivered a forecast for the preferred location. The adapter
+     * applies it asynchronously, so its item count can still be 0 when the load finishes.
+     */
+    private boolean mForecastDelivered;
+
+    /*
+     * The location the current load displays. Kept rather than read again on delivery: the
+     * sync can learn its coordinates meanwhile, which moves the preference to a geohash key.
+     */
+    private String mForecastLocation;
 
     private static boolean PREFERENCES_HAVE_BEEN_UPDATED = false;
 
@@ -106,36 +115,11 @@ public class MainActivity extends AppCompatActivity
          */
         mLoadingIndicator = findViewById(R.id.pb_loading_indicator);
 
-        /*
-         * This ID will uniquely identify the Loader. We can use it, for example, to get a handle
-         * on our Loader at a later point in time through the support LoaderManager.
-         */
-        int loaderId = FORECAST_LOADER_ID;
+        /* Once all our Views are setup, there is nothing left to do but load the weather data. */
+        loadWeatherData();
 
-        /*
-         * From MainActivity, we have implemented the LoaderCallbacks interface with the type of
-         * String array. (implements LoaderCallbacks<String[]>) The variable callback is passed
-         * to the call to initLoader below. This means that whenever the loaderManager has
-         * something to notify us of, it will do so through this callback.
-         */
-        LoaderManager.LoaderCallbacks<String[]> callback =
-                MainActivity.this;
-
-        /*
-         * The second parameter of the initLoader method below is a Bundle. Optionally, you can
-         * pass a Bundle to initLoader that you can then access from within the onCreateLoader
-         * callback. In our case, we don't actually use the Bundle, but it's here in case we wanted
-         * to.
-         */
-        Bundle bundleForLoader = null;
-
-        /*
-         * Ensures a loader is initialized and active. If the loader doesn't already exist, one is
-         * created and (if the activity/fragment is currently started) starts the loader. Otherwise
-         * the last created loader is re-used.
-         */
-        /*getSupportLoaderManager()*/
-        LoaderManager.getInstance(this).initLoader(loaderId, bundleForLoader, callback);
+        /* Keep the forecasts refreshed in the background, so the next launch finds them on disk */
+        SunshineSyncUtils.scheduleSync(this);
 
         Log.d(TAG, "onCreate: registering preference changed listener");
 
@@ -148,104 +132,6 @@ public class MainActivity extends AppCompatActivity
                 .registerOnSharedPreferenceChangeListener(this);
     }
 
-    /**
-     * Instantiate and return a new Loader for the given ID.
-     *
-     * @param id         The ID whose loader is to be created.
-     * @param loaderArgs Any arguments supplied by the caller.
-     * @return Return a new Loader instance that is ready to start loading.
-     */
-    public Loader<String[]> onCreateLoader(int id, final Bundle loaderArgs) {
-
-        return new AsyncTaskLoader<String[]>(this) {
-
-            /* This String array will hold and help cache our weather data */
-            String[] mWeatherData = null;
-
-            /**
-             * Subclasses of AsyncTaskLoader must implement this to take care of loading their data.
-             */
-            @Override
-            protected void onStartLoading() {
-                if (mWeatherData != null) {
-                    deliverResult(mWeatherData);
-                } else {
-                    mLoadingIndicator.setVisibility(View.VISIBLE);
-                    forceLoad();
-                }
-            }
-
-            /**
-             * This is the method of the AsyncTaskLoader that will load and parse the JSON data
-             * from OpenWeatherMap in the background.
-             *
-             * @return Weather data from OpenWeatherMap as an array of Strings.
-             *         null if an error occurs
-             */
-            @Override
-            public String[] loadInBackground() {
-
-                String locationQuery = SunshinePreferences
-                        .getPreferredWeatherLocation(MainActivity.this);
-
-                URL weatherRequestUrl = NetworkUtils.buildUrl(locationQuery);
-
-                try {
-                    String jsonWeatherResponse = NetworkUtils
-                            .getResponseFromHttpUrl(weatherRequestUrl);
-
-                    String[] simpleJsonWeatherData = OpenWeatherJsonUtils
-                            .getSimpleWeatherStringsFromJson(MainActivity.this, jsonWeatherResponse);
-
-                    return simpleJsonWeatherData;
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    return null;
-                }
-            }
-
-            /**
-             * Sends the result of the load to the registered listener.
-             *
-             * @param data The result of the load
-             */
-            public void deliverResult(String[] data) {
-                mWeatherData = data;
-                super.deliverResult(data);
-            }
-        };
-    }
-
-    /**
-     * Called when a previously created loader has finished its load.
-     *
-     * @param loader The Loader that has finished.
-     * @param data   The data generated by the Loader.
-     */
-    public void onLoadFinished(Loader<String[]> loader, String[] data) {
-        mLoadingIndicator.setVisibility(View.INVISIBLE);
-        mForecastAdapter.setWeatherData(data);
-        if (null == data) {
-            showErrorMessage();
-        } else {
-            showWeatherDataView();
-        }
-    }
-
-    /**
-     * Called when a previously created loader is being reset, and thus
-     * making its data unavailable.  The application should at this point
-     * remove any references it has to the Loader's data.
-     *
-     * @param loader The Loader that is being reset.
-     */
-    public void onLoaderReset(Loader<String[]> loader) {
-        /*
-         * We aren't using this method in our example application, but we are required to Override
-         * it to implement the LoaderCallbacks<String> interface
-         */
-    }
-
     /**
      * This method is used when we are resetting data, so that at one point in time during a
      * refresh of our data, you can see that there is no data showing.
@@ -277,8 +163,14 @@ public class MainActivity extends AppCompatActivity
      * to automagically open the Common Intents page
      */
     private void openLocationInMap() {
-        String addressString = SunshinePreferences.getPreferredWeatherLocation(this);
-        Uri geoLocation = Uri.parse("geo:0,0?q=" + addressString);
+        Uri geoLocation;
+        if (SunshinePreferences.isLocationLatLonAvailable(this)) {
+            double[] coordinates = SunshinePreferences.getLocationCoordinates(this);
+            geoLocation = Uri.parse("geo:" + coordinates[0] + "," + coordinates[1]);
+        } else {
+            String addressString = SunshinePreferences.getPreferredWeatherLocation(this);
+            geoLocation = Uri.parse("geo:0,0?q=" + addressString);
+        }
 
         Intent intent = new Intent(Intent.ACTION_VIEW);
         intent.setData(geoLocation);
@@ -300,12 +192,8 @@ public class MainActivity extends AppCompatActivity
         int id = item.getItemId();
 
         if (id == R.id.refresh) {
-            mWeatherTextView.setText("");
             invalidateData();
-
-            LoaderManager.getInstance(this).restartLoader(FORECAST_LOADER_ID,
-                    null,
-                    this);
+            loadWeatherData();
             return true;
         }
 
@@ -326,14 +214,35 @@ public class MainActivity extends AppCompatActivity
 
     /**
      * This method will get the user's preferred location for weather,
-     * and then tell some
-     * background method to get the weather data in the background.
+     * and then tell the ForecastLoadingEngine to get the weather data in the background.
+     * Any other saved locations are loaded alongside it at a lower priority, so their
+     * forecasts are already stored when the user switches to one of them.
      */
     private void loadWeatherData() {
-        /* Call showWeatherDataView before executing the AsyncTask*/
-        showWeatherDataView();
-        String location = SunshinePreferences.getPreferredWeatherLocation(this);
-        new FetchWeatherTask().execute(location);
+        cancelForecastRequests();
+        mForecastDelivered = false;
+        mLoadingIndicator.setVisibility(View.VISIBLE);
+
+        ForecastLoadingEngine engine = ForecastLoadingEngine.getInstance(this);
+        String location = SunshinePreferences.getForecastLocation(this);
+        mForecastLocation = location;
+
+        mForecastRequests.add(engine.load(location,
+                ForecastLoadingEngine.PRIORITY_VISIBLE, this));
+
+        if (SunshinePreferences.isMultiLocationEnabled(this)) {
+            List<String> otherLocations = SunshinePreferences.getSavedWeatherLocations(this);
+            otherLocations.remove(location);
+            mForecastRequests.addAll(engine.loadAll(otherLocations,
+                    ForecastLoadingEngine.PRIORITY_BACKGROUND, this));
+        }
+    }
+
+    private void cancelForecastRequests() {
+        for (ForecastLoadingEngine.Request request : mForecastRequests) {
+            request.cancel();
+        }
+        mForecastRequests.clear();
     }
 
     @Override
@@ -345,82 +254,63 @@ public class MainActivity extends AppCompatActivity
         startActivity(intent);
     }
 
+    /**
+     * Called on the main thread with the stored forecast of one of our locations, and again
+     * once it is refreshed if anything changed. Only the preferred location is displayed; the
+     * others have been saved in the database.
+     *
+     * @param location The location that was loaded.
+     * @param forecast Its forecast.
+     */
     @Override
-    public void onPointerCaptureChanged(boolean hasCapture) {
-
-    }
-
-    @Override
-    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String s) {
-        PREFERENCES_HAVE_BEEN_UPDATED = true;
+    public void onForecastLoaded(String location, ForecastBatch forecast) {
+        if (!location.equals(mForecastLocation)) {
+            return;
+        }
+        mForecastDelivered = true;
+        mForecastAdapter.setWeatherData(forecast);
+        showWeatherDataView();
     }
 
     /**
-     * Create a class that extends AsyncTask to perform network requests
+     * Called on the main thread once a location is done refreshing. If the refresh failed,
+     * whatever is already on screen stays there and the error is only shown when there is
+     * nothing else to show.
+     *
+     * @param location  The location that was loaded.
+     * @param refreshed true if the forecast was refreshed.
      */
-    @SuppressLint("StaticFieldLeak")
-    class FetchWeatherTask extends AsyncTask<String, Void, String[]> {
-        /*Within your AsyncTask, override the method
-        onPreExecute and show the loading indicator*/
-        @Override
-        protected void onPreExecute() {
-            super.onPreExecute();
-            mLoadingIndicator.setVisibility(View.VISIBLE);
+    @Override
+    public void onForecastLoadFinished(String location, boolean refreshed) {
+        if (!location.equals(mForecastLocation)) {
+            return;
         }
-
-        /**
-         * Override the doInBackground method to perform your network requests.
-         */
-        @Override
-        protected String[] doInBackground(String... params) {
-            /* If there's no zip code, there's nothing to look up. */
-            if (params.length == 0) {
-                return null;
-            }
-
-            String location = params[0];
-            URL weatherRequestsUrl = NetworkUtils.buildUrl(location);
-
-            try {
-                String jsonWeatherResponse = NetworkUtils
-                        .getResponseFromHttpUrl(weatherRequestsUrl);
-
-                return OpenWeatherJsonUtils
-                        .getSimpleWeatherStringsFromJson(MainActivity.this,
-                                jsonWeatherResponse);
-
-            } catch (Exception e) {
-                e.printStackTrace();
-                return null;
-            }
+        mLoadingIndicator.setVisibility(View.INVISIBLE);
+        if (!refreshed && !mForecastDelivered && mForecastAdapter.getItemCount() == 0) {
+            showErrorMessage();
         }
+    }
+
+    @Override
+    public void onPointerCaptureChanged(boolean hasCapture) {
 
-        /**
-         * Override the onPostExecute method to display
-         * the results of the network request
-         */
-        @Override
-        protected void onPostExecute(String[] weatherData) {
-            /* As soon as the data is finished loading, hide the loading indicator*/
-            mLoadingIndicator.setVisibility(View.INVISIBLE);
-            if (weatherData != null) {
-                /*If the weather data was not null, make sure the data view is visible*/
-                showWeatherDataView();
-                /*
-                 * Iterate through the array and append the Strings to the TextView.
-                 * The reason why we add the "\n\n\n" after the String is
-                 *  to give visual separation between each String in the
-                 * TextView. Later, we'll learn about a better way to display lists of data.
-                 */
-                for (String weatherString : weatherData) {
-                    mWeatherTextView.append((weatherString) + "\n\n\n");
-                }
-            } else {
-                showErrorMessage();
-            }
-        }
     }
 
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String s) {
+        if (getString(R.string.pref_units_key).equals(s)) {
+            /*
+             * Units only change how the forecast is displayed. The adapter keeps the raw
+             * forecast, so re-formatting the rows is enough and nothing has to be fetched again.
+             */
+            mForecastAdapter.onDisplayPreferencesChanged();
+        } else if (getString(R.string.pref_sync_interval_key).equals(s)) {
+            /* Only the background sync cares about its interval */
+            SunshineSyncUtils.scheduleSync(this);
+        } else {
+            PREFERENCES_HAVE_BEEN_UPDATED = true;
+        }
+    }
 
     /**
      * This method will make the View for the weather data visible and
@@ -455,8 +345,7 @@ public class MainActivity extends AppCompatActivity
         super.onStart();
         if (PREFERENCES_HAVE_BEEN_UPDATED) {
             Log.d(TAG, "onStart: preferences were updated");
-            LoaderManager.getInstance(this).restartLoader(FORECAST_LOADER_ID,
-                    null, this);
+            loadWeatherData();
             PREFERENCES_HAVE_BEEN_UPDATED = false;
         }
     }
@@ -464,6 +353,7 @@ public class MainActivity extends AppCompatActivity
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        cancelForecastRequests();
         PreferenceManager.getDefaultSharedPreferences(this)
                 .unregisterOnSharedPreferenceChangeListener(this);
     }
@@ -9,6 +9,8 @@ import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.PreferenceScreen;
 
+import com.example.android.sunshine.Data.SunshinePreferences;
+
 
 public class SettingsFragment extends PreferenceFragmentCompat
         implements SharedPreferences.OnSharedPreferenceChangeListener {
@@ -52,6 +54,28 @@ public class SettingsFragment extends PreferenceFragmentCompat
                 setPreferenceSummary(p,value);
             }
         }
+
+        /*
+         * Only a location the user typed in makes the stored coordinates stale. The sync also
+         * writes this preference together with matching coordinates, so this can't be done
+         * in onSharedPreferenceChanged.
+         */
+        Preference locationPreference = findPreference(getString(R.string.pref_location_key));
+        if (locationPreference != null) {
+            locationPreference.setOnPreferenceChangeListener(
+                    new Preference.OnPreferenceChangeListener() {
+                        @Override
+                        public boolean onPreferenceChange(Preference preference,
+                                                          Object newValue) {
+                            String location = SunshinePreferences
+                                    .getPreferredWeatherLocation(getActivity());
+                            if (!location.equals(newValue)) {
+                                SunshinePreferences.resetLocationCoordinates(getActivity());
+                            }
+                            return true;
+                        }
+                    });
+        }
     }
 
     @Override
@@ -0,0 +1,364 @@
+package com.example.android.sunshine.Sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.core.os.OperationCanceledException;
+
+import com.example.android.sunshine.Data.ForecastBatch;
+import com.example.android.sunshine.Data.ForecastStore;
+import com.example.android.sunshine.Utilities.HttpConnectionPool;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads forecasts in the background and delivers them on the main thread.
+ * <ul>
+ * <li>Loads run on a small bounded pool. All locations currently live on the same weather
+ * server, so the requests actually on the wire are further capped by
+ * {@link HttpConnectionPool#MAX_CONNECTIONS_PER_HOST}.</li>
+ * <li>Asking for a location that is already being loaded doesn't start a second load; the new
+ * caller simply gets the result of the running one. Refresh storms therefore coalesce.</li>
+ * <li>Waiting loads are ordered by priority, so the location on screen goes before locations
+ * that are only synced ahead of time.</li>
+ * <li>Every load hands back a {@link Request} that can be cancelled. A cancelled request is
+ * never delivered. Once nobody is waiting for a load anymore it is dropped if it hasn't
+ * started, and otherwise stops at the next checkpoint: before the refresh, and between the
+ * download and the parse. A new request for the location that arrives in the meantime takes
+ * the load over again, so a cancellation never fails anybody who didn't cancel.</li>
+ * <li>Loads are stale-while-revalidate: the forecast stored for the location is delivered
+ * first, straight from the database, then the location is refreshed in the background. The
+ * refreshed forecast is only delivered a second time if it differs from the stored one.</li>
+ * </ul>
+ */
+public final class ForecastLoadingEngine {
+
+    private static final String TAG = ForecastLoadingEngine.class.getSimpleName();
+
+    /* The location the user is looking at */
+    public static final int PRIORITY_VISIBLE = 0;
+
+    /* Locations synced ahead of time, in case the user switches to them */
+    public static final int PRIORITY_BACKGROUND = 1;
+
+    /* The most loads running at the same time */
+    private static final int MAX_PARALLEL_LOADS = 6;
+
+    private static ForecastLoadingEngine sInstance;
+
+    private final Context mContext;
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /* Orders jobs of the same priority first come, first served */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /* Location -> the job loading it. Guarded by this. */
+    private final Map<String, Job> mInFlight = new HashMap<>();
+
+    /**
+     * Receives loaded forecasts, always on the main thread.
+     */
+    public interface Callback {
+        /**
+         * Called with the stored forecast, if there is one, and again with the refreshed
+         * forecast if it is different. Never called with null.
+         *
+         * @param location The location that was loaded.
+         * @param forecast Its forecast.
+         */
+        void onForecastLoaded(String location, ForecastBatch forecast);
+
+        /**
+         * Called once the refresh is over, after any deliveries.
+         *
+         * @param location  The location that was loaded.
+         * @param refreshed true if the forecast was refreshed, false if that failed and only
+         *                  the stored forecast, if any, was delivered.
+         */
+        void onForecastLoadFinished(String location, boolean refreshed);
+    }
+
+    /**
+     * @param context Used to access the weather database and the response cache
+     * @return The engine shared by the whole app.
+     */
+    public static synchronized ForecastLoadingEngine getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastLoadingEngine(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ForecastLoadingEngine(Context context) {
+        mContext = context;
+        mExecutor = new ThreadPoolExecutor(
+                MAX_PARALLEL_LOADS, MAX_PARALLEL_LOADS,
+                30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory());
+        /* Don't keep idle threads around between refreshes */
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Delivers the stored forecast for the location, then refreshes it, see
+     * {@link SunshineSyncTask#syncWeather(Context, String, SunshineSyncTask.Cancellation)}.
+     *
+     * @param location The location to load
+     * @param priority {@link #PRIORITY_VISIBLE} or {@link #PRIORITY_BACKGROUND}
+     * @param callback Receives the results on the main thread
+     * @return A handle to cancel the load.
+     */
+    public synchronized Request load(String location, int priority, Callback callback) {
+        Request request = new Request(callback);
+        Job job = mInFlight.get(location);
+
+        if (job == null) {
+            job = new Job(location, priority);
+            job.requests.add(request);
+            request.job = job;
+            mInFlight.put(location, job);
+            mExecutor.execute(job);
+            return request;
+        }
+
+        job.requests.add(request);
+        request.job = job;
+        /* Wanted again before it reached a checkpoint: let it run on */
+        job.cancelled = false;
+        if (job.stored != null) {
+            /* Joined after the stored forecast went out; don't make this caller wait for it */
+            deliver(request, location, job.stored);
+        }
+        if (priority < job.priority && !job.started && mExecutor.remove(job)) {
+            /* Someone more important is now waiting; move the job up the queue */
+            job.priority = priority;
+            mExecutor.execute(job);
+        }
+        return request;
+    }
+
+    /**
+     * Loads the current forecasts for several locations. Each result is delivered as soon as
+     * it is ready, so one slow location never holds up the others.
+     *
+     * @param locations The locations to load
+     * @param priority  {@link #PRIORITY_VISIBLE} or {@link #PRIORITY_BACKGROUND}
+     * @param callback  Receives each result on the main thread
+     * @return One handle per location.
+     */
+    public List<Request> loadAll(List<String> locations, int priority, Callback callback) {
+        List<Request> requests = new ArrayList<>(locations.size());
+        for (String location : locations) {
+            requests.add(load(location, priority, callback));
+        }
+        return requests;
+    }
+
+    private void deliver(final Request request, final String location,
+                         final ForecastBatch forecast) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!request.isCancelled()) {
+                    request.callback.onForecastLoaded(location, forecast);
+                }
+            }
+        });
+    }
+
+    private void finish(final Request request, final String location, final boolean refreshed) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!request.isCancelled()) {
+                    request.callback.onForecastLoadFinished(location, refreshed);
+                }
+            }
+        });
+    }
+
+    private synchronized void cancel(Request request) {
+        Job job = request.job;
+        if (job == null) {
+            return;
+        }
+        job.requests.remove(request);
+        if (!job.requests.isEmpty()) {
+            return;
+        }
+        if (!job.started && mExecutor.remove(job)) {
+            mInFlight.remove(job.location);
+            return;
+        }
+
+        /*
+         * Already running: stop it at its next checkpoint. It stays in flight, so a new request
+         * for the location re-attaches to it instead of joining its fetch from a second job.
+         */
+        job.cancelled = true;
+    }
+
+    /**
+     * A handle on one caller's interest in a load.
+     */
+    public final class Request {
+        private final Callback callback;
+        private volatile boolean mCancelled;
+
+        /* The job this request waits on. Guarded by the engine. */
+        private Job job;
+
+        private Request(Callback callback) {
+            this.callback = callback;
+        }
+
+        /**
+         * Makes sure the callback is never called for this request. If no other request is
+         * waiting on the same load, the load itself is cancelled too. Safe to call from the
+         * main thread at any time, including after delivery.
+         */
+        public void cancel() {
+            mCancelled = true;
+            ForecastLoadingEngine.this.cancel(this);
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * Work ordered by priority, then by submission order.
+     */
+    private abstract static class Prioritized implements Runnable, Comparable<Prioritized> {
+        int priority;
+        final long sequence;
+
+        Prioritized(int priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Prioritized other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * The single load of one location, shared by every request for it.
+     */
+    private final class Job extends Prioritized implements SunshineSyncTask.Cancellation {
+        final String location;
+        final List<Request> requests = new ArrayList<>();
+        boolean started;
+
+        /* Set once the last request for a running job is cancelled, cleared if one re-attaches */
+        volatile boolean cancelled;
+
+        /* The stored forecast, once it has been delivered. Guarded by the engine. */
+        ForecastBatch stored;
+
+        Job(String location, int priority) {
+            super(priority, mSequence.getAndIncrement());
+            this.location = location;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            synchronized (ForecastLoadingEngine.this) {
+                started = true;
+            }
+
+            /* Stale: whatever we have on disk goes out right away */
+            ForecastBatch storedForecast = ForecastStore.load(mContext, location);
+            if (storedForecast != null) {
+                synchronized (ForecastLoadingEngine.this) {
+                    stored = storedForecast;
+                    for (Request request : requests) {
+                        deliver(request, location, storedForecast);
+                    }
+                }
+            }
+
+            /* Revalidate */
+            ForecastBatch forecast = null;
+            boolean refreshed = false;
+            while (true) {
+                try {
+                    forecast = SunshineSyncTask.syncWeather(mContext, location, this);
+                    refreshed = forecast != null;
+                } catch (SunshineSyncTask.StaleForecastException e) {
+                    /* Still worth showing if we had nothing stored, but it's not a refresh */
+                    Log.w(TAG, "Could not refresh " + location + ": " + e.getMessage());
+                    forecast = e.getForecast();
+                } catch (OperationCanceledException e) {
+                    synchronized (ForecastLoadingEngine.this) {
+                        if (!requests.isEmpty()) {
+                            /* Someone re-attached just after the checkpoint fired; go again */
+                            cancelled = false;
+                            continue;
+                        }
+                    }
+                    Log.d(TAG, "Cancelled loading " + location);
+                } catch (Exception e) {
+                    Log.e(TAG, "Could not load " + location, e);
+                }
+                break;
+            }
+
+            boolean changed = forecast != null && !forecast.equals(storedForecast);
+            List<Request> waiting;
+            synchronized (ForecastLoadingEngine.this) {
+                mInFlight.remove(location);
+                waiting = new ArrayList<>(requests);
+            }
+            for (Request request : waiting) {
+                if (changed) {
+                    deliver(request, location, forecast);
+                }
+                finish(request, location, refreshed);
+            }
+        }
+    }
+
+    /**
+     * Runs loads on background priority threads, so they don't compete with the UI thread.
+     */
+    private static final class BackgroundThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "ForecastLoader #" + mCount.incrementAndGet());
+        }
+    }
+}
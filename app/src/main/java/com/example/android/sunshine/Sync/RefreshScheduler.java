@@ -0,0 +1,225 @@
+package com.example.android.sunshine.Sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.android.sunshine.Data.ForecastBatch;
+import com.example.android.sunshine.Data.SunshinePreferences;
+import com.example.android.sunshine.Utilities.SunshineDateUtils;
+
+/**
+ * Adapts how often the background sync runs to the weather. Storms, quickly changing
+ * conditions and rain or snow in the next few days shorten the interval set in preferences,
+ * stable high-pressure weather stretches it. The schedule is recomputed each time the forecast for
+ * the user's location is refreshed, and can be read back with {@link #getSchedule(Context)}.
+ */
+public final class RefreshScheduler {
+
+    private static final String TAG = RefreshScheduler.class.getSimpleName();
+
+    /**
+     * Why the sync runs at its current interval.
+     */
+    public enum Reason {
+        /* No forecast yet, or nothing notable in it: the interval set in preferences */
+        DEFAULT,
+        /* Thunderstorms or extreme weather coming up */
+        SEVERE,
+        /* The kind of weather changes, or the pressure drops, over the next days */
+        CHANGING,
+        /* Drizzle, rain or snow, but steady: a bit sooner than the preference */
+        UNSETTLED,
+        /* Clear or cloudy under high pressure */
+        STABLE
+    }
+
+    /* Kept apart from the user's preferences so writing it doesn't look like a settings change */
+    private static final String PREFS_NAME = "refresh_schedule";
+    private static final String KEY_LAST_REFRESH = "last_refresh";
+    private static final String KEY_REASON = "reason";
+
+    /* Only the first days matter for how soon the forecast goes stale */
+    private static final int NEAR_TERM_DAYS = 3;
+
+    /* A drop this large over the near term is a sign of a front coming through, in hPa */
+    private static final double PRESSURE_DROP_HPA = 6;
+
+    /* At or above this, clear weather is expected to hold, in hPa */
+    private static final double HIGH_PRESSURE_HPA = 1015;
+
+    private static final long MIN_INTERVAL_MILLIS = 30 * SunshineDateUtils.MINUTE_IN_MILLIS;
+    private static final long MAX_INTERVAL_MILLIS = SunshineDateUtils.DAY_IN_MILLIS;
+
+    private RefreshScheduler() {
+    }
+
+    /**
+     * When the sync runs next and why.
+     */
+    public static final class Schedule {
+        public final long intervalMillis;
+        public final long nextRefreshMillis;
+        public final Reason reason;
+
+        Schedule(long intervalMillis, long nextRefreshMillis, Reason reason) {
+            this.intervalMillis = intervalMillis;
+            this.nextRefreshMillis = nextRefreshMillis;
+            this.reason = reason;
+        }
+
+        /**
+         * @return true if the weather calls for refreshing sooner than usual.
+         */
+        public boolean isUrgent() {
+            return reason == Reason.SEVERE || reason == Reason.CHANGING;
+        }
+
+        @Override
+        public String toString() {
+            return "Schedule[interval=" + intervalMillis + "ms, next=" + nextRefreshMillis
+                    + ", reason=" + reason + "]";
+        }
+    }
+
+    /**
+     * Recomputes the schedule from a freshly refreshed forecast of the user's location, and
+     * reschedules the sync if the weather calls for a different interval.
+     *
+     * @param context  Used to read the preferences and reach the JobScheduler
+     * @param forecast The forecast that was just refreshed
+     */
+    public static void onForecastRefreshed(Context context, ForecastBatch forecast) {
+        Reason previous = getNextRefreshReason(context);
+        Reason reason = classify(forecast);
+
+        getPrefs(context).edit()
+                .putLong(KEY_LAST_REFRESH, System.currentTimeMillis())
+                .putString(KEY_REASON, reason.name())
+                .apply();
+        Log.d(TAG, getSchedule(context).toString());
+
+        if (reason != previous) {
+            SunshineSyncUtils.scheduleSync(context);
+        }
+    }
+
+    /**
+     * @param context Used to read the preferences
+     * @return The current schedule. Before any forecast has been refreshed, this is the
+     * interval set in preferences, from now, for {@link Reason#DEFAULT}.
+     */
+    public static Schedule getSchedule(Context context) {
+        SharedPreferences prefs = getPrefs(context);
+        long lastRefreshMillis = prefs.getLong(KEY_LAST_REFRESH, System.currentTimeMillis());
+
+        Reason reason;
+        try {
+            reason = Reason.valueOf(prefs.getString(KEY_REASON, Reason.DEFAULT.name()));
+        } catch (IllegalArgumentException e) {
+            reason = Reason.DEFAULT;
+        }
+
+        /* Derived from the preference every time, so changing it applies right away */
+        long intervalMillis =
+                getIntervalMillis(reason, SunshinePreferences.getSyncIntervalMillis(context));
+        return new Schedule(intervalMillis, lastRefreshMillis + intervalMillis, reason);
+    }
+
+    /**
+     * @param context Used to read the preferences
+     * @return When the forecast is due to be refreshed next, in milliseconds since the epoch.
+     */
+    public static long getNextRefreshTime(Context context) {
+        return getSchedule(context).nextRefreshMillis;
+    }
+
+    /**
+     * @param context Used to read the preferences
+     * @return Why the forecast is refreshed at that time.
+     */
+    public static Reason getNextRefreshReason(Context context) {
+        return getSchedule(context).reason;
+    }
+
+    /**
+     * @param reason             Why the sync runs
+     * @param baseIntervalMillis The interval set in preferences
+     * @return The interval the reason calls for.
+     */
+    private static long getIntervalMillis(Reason reason, long baseIntervalMillis) {
+        long intervalMillis;
+        switch (reason) {
+            case SEVERE:
+                intervalMillis = baseIntervalMillis / 4;
+                break;
+            case CHANGING:
+                intervalMillis = baseIntervalMillis / 2;
+                break;
+            case UNSETTLED:
+                intervalMillis = baseIntervalMillis * 3 / 4;
+                break;
+            case STABLE:
+                intervalMillis = baseIntervalMillis * 2;
+                break;
+            default:
+                intervalMillis = baseIntervalMillis;
+                break;
+        }
+        return Math.max(MIN_INTERVAL_MILLIS, Math.min(MAX_INTERVAL_MILLIS, intervalMillis));
+    }
+
+    /**
+     * Looks at the condition codes and pressure of the near-term days, see
+     * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+     */
+    private static Reason classify(ForecastBatch forecast) {
+        int days = Math.min(NEAR_TERM_DAYS, forecast == null ? 0 : forecast.size());
+        if (days == 0) {
+            return Reason.DEFAULT;
+        }
+
+        boolean precipitation = false;
+        boolean clear = true;
+        boolean changing = false;
+        int firstGroup = forecast.getWeatherId(0) / 100;
+        double firstPressure = forecast.getPressure(0);
+        double lowestPressure = firstPressure;
+
+        for (int day = 0; day < days; day++) {
+            int weatherId = forecast.getWeatherId(day);
+            if (isSevere(weatherId)) {
+                return Reason.SEVERE;
+            }
+
+            int group = weatherId / 100;
+            changing |= group != firstGroup;
+            precipitation |= group == 3 || group == 5 || group == 6;
+            clear &= group == 8;
+            lowestPressure = Math.min(lowestPressure, forecast.getPressure(day));
+        }
+
+        if (changing || firstPressure - lowestPressure >= PRESSURE_DROP_HPA) {
+            return Reason.CHANGING;
+        }
+        if (precipitation) {
+            return Reason.UNSETTLED;
+        }
+        if (clear && lowestPressure >= HIGH_PRESSURE_HPA) {
+            return Reason.STABLE;
+        }
+        return Reason.DEFAULT;
+    }
+
+    /* Thunderstorms, tornadoes, tropical storms, hurricanes and the like, gales to hurricanes */
+    private static boolean isSevere(int weatherId) {
+        return (weatherId >= 200 && weatherId <= 232)
+                || weatherId == 781
+                || (weatherId >= 900 && weatherId <= 906)
+                || (weatherId >= 958 && weatherId <= 962);
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.android.sunshine.Sync;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.util.SparseArray;
+
+import androidx.annotation.RequiresApi;
+
+import com.example.android.sunshine.Data.ForecastBatch;
+import com.example.android.sunshine.Data.SunshinePreferences;
+
+import java.util.List;
+
+/**
+ * Refreshes every saved location into the weather database in the background, see
+ * {@link SunshineSyncUtils}. The loads go through the {@link ForecastLoadingEngine}, so a
+ * sync that overlaps with the app being opened shares its requests.
+ */
+@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+public class SunshineSyncJobService extends JobService {
+
+    /* The syncs in progress, by job id. Only touched on the main thread. */
+    private final SparseArray<SyncRun> mRuns = new SparseArray<>();
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        List<String> locations = SunshinePreferences.getSavedWeatherLocations(this);
+        if (locations.isEmpty()) {
+            return false;
+        }
+
+        SyncRun run = new SyncRun(params, locations.size());
+        mRuns.put(params.getJobId(), run);
+        run.requests = ForecastLoadingEngine.getInstance(this)
+                .loadAll(locations, ForecastLoadingEngine.PRIORITY_BACKGROUND, run);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        SyncRun run = mRuns.get(params.getJobId());
+        mRuns.remove(params.getJobId());
+        if (run != null) {
+            for (ForecastLoadingEngine.Request request : run.requests) {
+                request.cancel();
+            }
+        }
+        /* The periodic job just runs again next period, a retry has to be rescheduled */
+        return params.getJobId() == SunshineSyncUtils.RETRY_JOB_ID;
+    }
+
+    /**
+     * One run of the sync, finished once every location has been refreshed or has failed.
+     */
+    private final class SyncRun implements ForecastLoadingEngine.Callback {
+        final JobParameters params;
+        List<ForecastLoadingEngine.Request> requests;
+        int remaining;
+        boolean failed;
+
+        SyncRun(JobParameters params, int locationCount) {
+            this.params = params;
+            this.remaining = locationCount;
+        }
+
+        @Override
+        public void onForecastLoaded(String location, ForecastBatch forecast) {
+            /* Already saved in the weather database by the sync */
+        }
+
+        @Override
+        public void onForecastLoadFinished(String location, boolean refreshed) {
+            failed |= !refreshed;
+            if (--remaining > 0) {
+                return;
+            }
+
+            mRuns.remove(params.getJobId());
+            if (failed) {
+                int attempt = params.getExtras().getInt(SunshineSyncUtils.EXTRA_ATTEMPT, 0);
+                SunshineSyncUtils.scheduleRetry(SunshineSyncJobService.this, attempt + 1);
+            } else {
+                SunshineSyncUtils.cancelRetry(SunshineSyncJobService.this);
+            }
+            jobFinished(params, false);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.android.sunshine.Sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.core.os.OperationCanceledException;
+
+import com.example.android.sunshine.Data.ForecastBatch;
+import com.example.android.sunshine.Data.ForecastStore;
+import com.example.android.sunshine.Data.SunshinePreferences;
+import com.example.android.sunshine.Utilities.CircuitBreaker;
+import com.example.android.sunshine.Utilities.ForecastResponseCache;
+import com.example.android.sunshine.Utilities.NetworkUtils;
+import com.example.android.sunshine.Utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.Utilities.SingleFlight;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+
+/**
+ * Fetches the forecast for a location and keeps the local weather database up to date.
+ */
+public final class SunshineSyncTask {
+
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
+    /*
+     * Rotations, preference changes, manual refreshes and background syncs can all ask for the
+     * same forecast at once. Keyed by request URL, this lets them share one fetch and parse.
+     */
+    private static final SingleFlight<String, ForecastBatch> sInFlight = new SingleFlight<>();
+
+    private SunshineSyncTask() {
+    }
+
+    /**
+     * Tells a running sync whether anybody still wants its result. The sync only checks it,
+     * so whoever started the sync may withdraw a cancellation before a checkpoint is reached.
+     */
+    public interface Cancellation {
+        /**
+         * @return true if the sync should stop at its next checkpoint.
+         */
+        boolean isCanceled();
+    }
+
+    /**
+     * Returns the current forecast for the location, doing as little work as possible:
+     * <ul>
+     * <li>If the cached response is still fresh, the forecast saved from it is returned without
+     * any network request or parsing.</li>
+     * <li>Otherwise a conditional request is made. If the server reports that nothing changed,
+     * the saved forecast is returned without parsing anything.</li>
+     * <li>Otherwise the new response is cached, parsed and saved in the weather database.
+     * If it is for the user's location query and no coordinates are known yet, the coordinates
+     * of the city in it are stored.</li>
+     * <li>If the weather server is failing and its circuit breaker is open, the saved
+     * forecast, or else the last cached response, is handed back however old it is, in a
+     * {@link StaleForecastException}.</li>
+     * </ul>
+     * Concurrent calls for the same location share a single fetch and get the same result.
+     * <p>
+     * Must not be called on the main thread.
+     *
+     * @param context       Used to access the weather database and the response cache
+     * @param locationQuery The location to fetch the forecast for, a query or a geohash key
+     * @param cancellation  Checked before the request and again before the response is parsed
+     * @return The current forecast, or null if the server reported an error.
+     * @throws IOException                Related to network and stream reading
+     * @throws StaleForecastException     If the forecast could not be refreshed, with the
+     *                                    last one we have
+     * @throws OperationCanceledException If the sync was cancelled
+     */
+    public static ForecastBatch syncWeather(final Context context, final String locationQuery,
+                                            final Cancellation cancellation)
+            throws IOException {
+
+        final URL weatherRequestUrl = NetworkUtils.buildUrlForLocation(locationQuery);
+        /* Read up front: the sync may learn the coordinates and switch it to a geohash key */
+        boolean isForecastLocation =
+                locationQuery.equals(SunshinePreferences.getForecastLocation(context));
+        ForecastBatch forecast = sInFlight.execute(weatherRequestUrl.toString(),
+                new Callable<ForecastBatch>() {
+                    @Override
+                    public ForecastBatch call() throws IOException {
+                        return syncWeather(context, locationQuery, weatherRequestUrl,
+                                cancellation);
+                    }
+                });
+
+        /* How soon the user's forecast goes stale decides how often we sync */
+        if (forecast != null && isForecastLocation) {
+            RefreshScheduler.onForecastRefreshed(context, forecast);
+        }
+        return forecast;
+    }
+
+    private static ForecastBatch syncWeather(Context context, String locationQuery,
+                                             URL weatherRequestUrl,
+                                             Cancellation cancellation)
+            throws IOException {
+
+        String cacheKey = weatherRequestUrl.toString();
+        ForecastResponseCache cache = ForecastResponseCache.getInstance(context);
+
+        if (cache.isFresh(cacheKey)) {
+            ForecastBatch stored = ForecastStore.load(context, locationQuery);
+            if (stored != null) {
+                return stored;
+            }
+            InputStream cachedResponse = cache.open(cacheKey);
+            if (cachedResponse != null) {
+                return parseAndSaveCached(context, locationQuery, cache, cacheKey,
+                        cachedResponse);
+            }
+        }
+
+        throwIfCanceled(cancellation);
+        ForecastBatch forecast;
+        try {
+            forecast = fetch(context, locationQuery, weatherRequestUrl, cache, cancellation);
+        } catch (CircuitBreaker.OpenException e) {
+            /*
+             * The weather server keeps failing and we are leaving it alone for a while. Stale
+             * data beats an error screen: serve what we stored, or else the cached response,
+             * but still as a failure, so nobody takes it for a refresh.
+             */
+            Log.w(TAG, e.getMessage() + ", serving stored forecast for " + locationQuery);
+            ForecastBatch stale = ForecastStore.load(context, locationQuery);
+            if (stale == null) {
+                InputStream cachedResponse = cache.open(cacheKey);
+                if (cachedResponse != null) {
+                    stale = parseAndSaveCached(context, locationQuery, cache, cacheKey,
+                            cachedResponse);
+                }
+            }
+            if (stale == null) {
+                throw e;
+            }
+            throw new StaleForecastException(stale, e);
+        }
+        Log.d(TAG, cache.toString());
+        return forecast;
+    }
+
+    /**
+     * Makes the request and returns the new or, on a 304, the stored forecast.
+     *
+     * @return The forecast, or null if the server reported an error.
+     */
+    private static ForecastBatch fetch(Context context, String locationQuery,
+                                       URL weatherRequestUrl, ForecastResponseCache cache,
+                                       Cancellation cancellation) throws IOException {
+
+        String cacheKey = weatherRequestUrl.toString();
+
+        try (InputStream response = NetworkUtils.getResponseStreamFromHttpUrl(
+                weatherRequestUrl, cache.getValidators(cacheKey))) {
+
+            if (response != null) {
+                return parseAndSaveResponse(context, locationQuery, weatherRequestUrl, cache,
+                        response, cancellation);
+            }
+        }
+
+        /* 304 Not Modified: the forecast we saved last time is still current */
+        cache.markFresh(cacheKey);
+        ForecastBatch stored = ForecastStore.load(context, locationQuery);
+        if (stored != null) {
+            return stored;
+        }
+
+        /*
+         * The stored rows are gone (e.g. the days have passed), so the validators point at data
+         * we no longer have. Drop them and fetch the full forecast again.
+         */
+        cache.removeValidators(cacheKey);
+        try (InputStream response = NetworkUtils
+                .getResponseStreamFromHttpUrl(weatherRequestUrl, null)) {
+
+            if (response == null) {
+                return null;
+            }
+            return parseAndSaveResponse(context, locationQuery, weatherRequestUrl, cache,
+                    response, cancellation);
+        }
+    }
+
+    /**
+     * Caches, parses and saves a new response. Its validators are only kept once the forecast
+     * is saved, so a later 304 never points back at a forecast we failed to store.
+     */
+    private static ForecastBatch parseAndSaveResponse(Context context, String locationQuery,
+                                                      URL weatherRequestUrl,
+                                                      ForecastResponseCache cache,
+                                                      InputStream response,
+                                                      Cancellation cancellation)
+            throws IOException {
+        String cacheKey = weatherRequestUrl.toString();
+        InputStream cachedResponse = cache.put(cacheKey, response,
+                NetworkUtils.getContentLength(response));
+        if (cancellation.isCanceled()) {
+            /* Nobody is waiting for the parse; an unparsed body must not pass for fresh */
+            cachedResponse.close();
+            cache.remove(cacheKey);
+            throwIfCanceled(cancellation);
+        }
+
+        ForecastBatch forecast = parseAndSaveCached(context, locationQuery, cache, cacheKey,
+                cachedResponse);
+        if (forecast != null) {
+            cache.putValidators(cacheKey, NetworkUtils.getValidators(response));
+        }
+        return forecast;
+    }
+
+    /**
+     * Parses and saves a cached response. If it holds no forecast, because it is malformed or
+     * the server reported an error in it, the entry is dropped so it isn't served as fresh.
+     */
+    private static ForecastBatch parseAndSaveCached(Context context, String locationQuery,
+                                                    ForecastResponseCache cache,
+                                                    String cacheKey, InputStream cachedResponse)
+            throws IOException {
+        ForecastBatch forecast;
+        try {
+            forecast = parseAndSave(context, locationQuery, cachedResponse);
+        } catch (IOException | RuntimeException e) {
+            cache.remove(cacheKey);
+            throw e;
+        }
+        if (forecast == null) {
+            cache.remove(cacheKey);
+        }
+        return forecast;
+    }
+
+    private static ForecastBatch parseAndSave(Context context, String locationQuery,
+                                              InputStream response) throws IOException {
+        try (Reader jsonWeatherResponse = new BufferedReader(
+                new InputStreamReader(response, StandardCharsets.UTF_8))) {
+
+            OpenWeatherJsonUtils.CityRecord city = new OpenWeatherJsonUtils.CityRecord();
+            ForecastBatch forecast = OpenWeatherJsonUtils
+                    .getForecastBatchFromJson(jsonWeatherResponse, city);
+            if (forecast != null) {
+                ForecastStore.save(context, locationQuery, forecast);
+                rememberCoordinates(context, locationQuery, forecast, city);
+            }
+            return forecast;
+        }
+    }
+
+    /**
+     * Stores the coordinates the server resolved the user's location query to, so from then
+     * on the forecast is fetched and stored by the geohash key of their cell. The forecast is
+     * saved under that key as well, so the switch doesn't start from an empty screen.
+     */
+    private static void rememberCoordinates(Context context, String locationQuery,
+                                            ForecastBatch forecast,
+                                            OpenWeatherJsonUtils.CityRecord city)
+            throws IOException {
+        if (!city.hasCoordinates
+                || SunshinePreferences.isLocationLatLonAvailable(context)
+                || !locationQuery.equals(
+                SunshinePreferences.getPreferredWeatherLocation(context))) {
+            return;
+        }
+
+        SunshinePreferences.setLocationDetails(context, city.name, city.lat, city.lon);
+        ForecastStore.save(context, SunshinePreferences.getForecastLocation(context), forecast);
+    }
+
+    /**
+     * Thrown when the forecast could not be refreshed but an older one is available. It is
+     * only good to show; it must not count as a refresh.
+     */
+    public static final class StaleForecastException extends IOException {
+        private final ForecastBatch mForecast;
+
+        StaleForecastException(ForecastBatch forecast, IOException cause) {
+            super(cause.getMessage(), cause);
+            mForecast = forecast;
+        }
+
+        /**
+         * @return The last forecast we have, never null.
+         */
+        public ForecastBatch getForecast() {
+            return mForecast;
+        }
+    }
+
+    private static void throwIfCanceled(Cancellation cancellation) {
+        if (cancellation.isCanceled()) {
+            throw new OperationCanceledException();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.sunshine.Sync;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.PersistableBundle;
+import android.util.Log;
+
+import com.example.android.sunshine.Utilities.SunshineDateUtils;
+
+/**
+ * Schedules the background sync, so forecasts are usually already on disk when the app
+ * opens. The sync runs periodically while the device is idle, charging and on an unmetered
+ * network; if it fails, it is retried with exponential backoff.
+ */
+public final class SunshineSyncUtils {
+
+    private static final String TAG = SunshineSyncUtils.class.getSimpleName();
+
+    static final int SYNC_JOB_ID = 1;
+    static final int RETRY_JOB_ID = 2;
+
+    /* Extra of the retry job: how many times in a row the sync has failed */
+    static final String EXTRA_ATTEMPT = "attempt";
+
+    /* The same bounds JobScheduler uses for its own backoff */
+    private static final long INITIAL_BACKOFF_MILLIS = 30 * SunshineDateUtils.SECOND_IN_MILLIS;
+    private static final long MAX_BACKOFF_MILLIS = 5 * SunshineDateUtils.HOUR_IN_MILLIS;
+
+    private SunshineSyncUtils() {
+    }
+
+    /**
+     * Schedules the periodic sync at the interval {@link RefreshScheduler} computed from the
+     * preferences and the current weather. Does nothing if it is already scheduled that way,
+     * so it is cheap to call every time the app starts. JobScheduler needs Lollipop; on older
+     * devices forecasts are only fetched in the app.
+     *
+     * @param context Used to reach the JobScheduler
+     */
+    public static void scheduleSync(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+
+        RefreshScheduler.Schedule schedule = RefreshScheduler.getSchedule(context);
+        long intervalMillis = schedule.intervalMillis;
+        /* When the weather is turning, don't wait for the device to be idle as well */
+        boolean requiresIdle = !schedule.isUrgent();
+
+        JobScheduler scheduler = getScheduler(context);
+        for (JobInfo pending : scheduler.getAllPendingJobs()) {
+            if (pending.getId() == SYNC_JOB_ID
+                    && pending.getIntervalMillis() == intervalMillis
+                    && pending.isRequireDeviceIdle() == requiresIdle) {
+                return;
+            }
+        }
+
+        /*
+         * Idle jobs can't have backoff criteria, so failures are retried by
+         * SunshineSyncJobService through scheduleRetry instead.
+         */
+        JobInfo job = new JobInfo.Builder(SYNC_JOB_ID, getService(context))
+                .setPeriodic(intervalMillis)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(requiresIdle)
+                .setPersisted(true)
+                .build();
+        scheduler.schedule(job);
+        Log.d(TAG, "Sync scheduled: " + schedule);
+    }
+
+    /**
+     * Schedules a one-off retry of a failed sync, twice as late as the previous one. The
+     * retry doesn't wait for the device to be idle, so it can fall between periodic runs.
+     *
+     * @param context Used to reach the JobScheduler
+     * @param attempt How many times in a row the sync has failed, from 1
+     */
+    static void scheduleRetry(Context context, int attempt) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+
+        long delayMillis = INITIAL_BACKOFF_MILLIS << Math.min(attempt - 1, 30);
+        if (delayMillis <= 0 || delayMillis > MAX_BACKOFF_MILLIS) {
+            delayMillis = MAX_BACKOFF_MILLIS;
+        }
+
+        PersistableBundle extras = new PersistableBundle();
+        extras.putInt(EXTRA_ATTEMPT, attempt);
+        JobInfo job = new JobInfo.Builder(RETRY_JOB_ID, getService(context))
+                .setMinimumLatency(delayMillis)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPersisted(true)
+                .setExtras(extras)
+                .build();
+        getScheduler(context).schedule(job);
+        Log.d(TAG, "Sync failed " + attempt + " times, retrying in " + delayMillis + "ms");
+    }
+
+    /**
+     * Cancels the pending retry, once a sync succeeded.
+     *
+     * @param context Used to reach the JobScheduler
+     */
+    static void cancelRetry(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        getScheduler(context).cancel(RETRY_JOB_ID);
+    }
+
+    private static JobScheduler getScheduler(Context context) {
+        return (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    }
+
+    private static ComponentName getService(Context context) {
+        return new ComponentName(context, SunshineSyncJobService.class);
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.android.sunshine.Utilities;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stops requests to a host that keeps failing. After {@link #FAILURE_THRESHOLD} failures in a
+ * row the breaker opens and every request fails at once with an {@link OpenException}, without
+ * touching the network. Once {@link #OPEN_DURATION_MILLIS} have passed a single trial request
+ * is let through: if it succeeds the breaker closes again, otherwise it stays open for another
+ * period.
+ * <p>
+ * A request counts as done once the response status is in. A body that fails while it is
+ * read or parsed afterwards is neither reported here nor retried; the caller just gets the
+ * error.
+ */
+public final class CircuitBreaker {
+
+    private static final String TAG = CircuitBreaker.class.getSimpleName();
+
+    /* Consecutive failures before the breaker opens */
+    public static final int FAILURE_THRESHOLD = 5;
+
+    /* How long requests are refused before a trial request is let through */
+    public static final long OPEN_DURATION_MILLIS = 30 * SunshineDateUtils.SECOND_IN_MILLIS;
+
+    private static final ConcurrentMap<String, CircuitBreaker> sBreakers =
+            new ConcurrentHashMap<>();
+
+    private final String mHost;
+
+    /* All guarded by this */
+    private int mConsecutiveFailures;
+    private long mOpenedAt;
+    private boolean mOpen;
+    private boolean mTrialInFlight;
+
+    /**
+     * @param host A host name
+     * @return The breaker shared by every request to that host.
+     */
+    public static CircuitBreaker forHost(String host) {
+        CircuitBreaker breaker = sBreakers.get(host);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(host);
+            breaker = sBreakers.putIfAbsent(host, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    private CircuitBreaker(String host) {
+        mHost = host;
+    }
+
+    /**
+     * Must be called before each request. Every request that is let through must then be
+     * reported with {@link #onSuccess()} or {@link #onFailure()}.
+     *
+     * @throws OpenException If the breaker is open and the request must not be made.
+     */
+    public synchronized void checkAllowed() throws OpenException {
+        if (!mOpen) {
+            return;
+        }
+        if (!mTrialInFlight
+                && SystemClock.elapsedRealtime() - mOpenedAt >= OPEN_DURATION_MILLIS) {
+            /* Half open: this request finds out whether the host has recovered */
+            mTrialInFlight = true;
+            return;
+        }
+        throw new OpenException(mHost);
+    }
+
+    /**
+     * Reports that a request reached the host and got a usable answer.
+     */
+    public synchronized void onSuccess() {
+        if (mOpen) {
+            Log.i(TAG, "Closed for " + mHost);
+        }
+        mConsecutiveFailures = 0;
+        mOpen = false;
+        mTrialInFlight = false;
+    }
+
+    /**
+     * Reports that a request failed in a way that says the host is unhealthy, such as a
+     * timeout or a server error.
+     */
+    public synchronized void onFailure() {
+        mConsecutiveFailures++;
+        if (mTrialInFlight || mConsecutiveFailures >= FAILURE_THRESHOLD) {
+            if (!mOpen) {
+                Log.w(TAG, "Opened for " + mHost + " after " + mConsecutiveFailures
+                        + " failures");
+            }
+            mOpen = true;
+            mTrialInFlight = false;
+            mOpenedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Reports that a request was given up before it could tell anything about the host, for
+     * example because the thread was interrupted.
+     */
+    public synchronized void onAbandoned() {
+        mTrialInFlight = false;
+    }
+
+    /**
+     * @return true if requests to the host are currently being refused.
+     */
+    public synchronized boolean isOpen() {
+        return mOpen;
+    }
+
+    /**
+     * Thrown instead of making a request while the breaker is open.
+     */
+    public static final class OpenException extends IOException {
+        OpenException(String host) {
+            super("Circuit breaker open for " + host);
+        }
+    }
+}
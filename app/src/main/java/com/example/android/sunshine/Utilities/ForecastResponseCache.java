@@ -0,0 +1,372 @@
+package com.example.android.sunshine.Utilities;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A disk cache for forecast responses, keyed by the request URL. Entries younger than the
+ * freshness TTL are served without touching the network, and the least recently used entries
+ * are evicted once the cache grows past its byte budget.
+ * <p>
+ * Next to an entry the cache can keep the ETag and Last-Modified of the response, so requests
+ * stay conditional across processes, e.g. for a background sync that starts the app fresh.
+ * They go when the entry goes.
+ */
+public final class ForecastResponseCache {
+
+    private static final String TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String CACHE_DIRECTORY = "forecast_responses";
+
+    /* Appended to the file name of an entry for the file holding its validators */
+    private static final String VALIDATORS_SUFFIX = ".validators";
+
+    /* How long a response may be used without asking the server again */
+    public static final long DEFAULT_FRESHNESS_TTL = 10 * SunshineDateUtils.MINUTE_IN_MILLIS;
+
+    /* A 16 day forecast is a few KB, so this holds the responses for plenty of locations */
+    public static final long DEFAULT_MAX_SIZE_BYTES = 1024 * 1024;
+
+    /* Used when the size of the body isn't known up front */
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+    /* The largest buffer a size hint may ask for */
+    private static final int MAX_COPY_BUFFER_SIZE = 256 * 1024;
+
+    private static ForecastResponseCache sInstance;
+
+    private final File mDirectory;
+
+    /* File name -> cached body, in access order so the eldest entry is the LRU one */
+    private final LinkedHashMap<String, File> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long mSize;
+    private long mFreshnessTtl = DEFAULT_FRESHNESS_TTL;
+    private long mMaxSize = DEFAULT_MAX_SIZE_BYTES;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * @param context Used to find the app's cache directory
+     * @return The cache shared by the whole app.
+     */
+    public static synchronized ForecastResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(),
+                    CACHE_DIRECTORY);
+            sInstance = new ForecastResponseCache(directory);
+        }
+        return sInstance;
+    }
+
+    private ForecastResponseCache(File directory) {
+        mDirectory = directory;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Could not create " + mDirectory);
+        }
+
+        /* Rebuild the index from what the last process left behind, oldest first */
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                /* A write that never finished */
+                file.delete();
+            } else if (file.getName().endsWith(VALIDATORS_SUFFIX)) {
+                /* Belongs to an entry, a few bytes that don't count against the budget */
+                if (!new File(mDirectory, file.getName().substring(0,
+                        file.getName().length() - VALIDATORS_SUFFIX.length())).exists()) {
+                    file.delete();
+                }
+            } else {
+                mEntries.put(file.getName(), file);
+                mSize += file.length();
+            }
+        }
+    }
+
+    /**
+     * @param freshnessTtl How long, in milliseconds, a response may be served from the cache.
+     */
+    public synchronized void setFreshnessTtl(long freshnessTtl) {
+        mFreshnessTtl = freshnessTtl;
+    }
+
+    /**
+     * @param maxSize The byte budget of the cache. Evicts entries right away if it is
+     *                already over it.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        trimToSize();
+    }
+
+    /**
+     * Checks whether the response for the key is young enough to be used without asking the
+     * server. Every call counts as a hit or a miss.
+     *
+     * @param key The request URL
+     * @return true if a fresh response is cached
+     */
+    public synchronized boolean isFresh(String key) {
+        File file = mEntries.get(fileName(key));
+        boolean fresh = file != null
+                && System.currentTimeMillis() - file.lastModified() < mFreshnessTtl;
+        if (fresh) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return fresh;
+    }
+
+    /**
+     * Opens the cached response for the key, fresh or not.
+     *
+     * @param key The request URL
+     * @return The cached body, which the caller must close, or null if nothing is cached.
+     */
+    public synchronized InputStream open(String key) {
+        File file = mEntries.get(fileName(key));
+        if (file == null) {
+            return null;
+        }
+        try {
+            return new FileInputStream(file);
+        } catch (IOException e) {
+            /* The file was removed behind our back */
+            removeFile(fileName(key));
+            return null;
+        }
+    }
+
+    /**
+     * Restarts the freshness period of a cached response, e.g. after the server confirmed with
+     * a 304 that it is still current.
+     *
+     * @param key The request URL
+     */
+    public synchronized void markFresh(String key) {
+        File file = mEntries.get(fileName(key));
+        if (file != null) {
+            file.setLastModified(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @param key The request URL
+     * @return The validators kept for the cached response, or null if there are none.
+     */
+    public synchronized NetworkUtils.Validators getValidators(String key) {
+        String name = fileName(key);
+        if (!mEntries.containsKey(name)) {
+            return null;
+        }
+        File file = validatorsFile(name);
+        if (!file.exists()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            NetworkUtils.Validators validators =
+                    new NetworkUtils.Validators(emptyToNull(reader.readLine()),
+                            emptyToNull(reader.readLine()));
+            return validators.isEmpty() ? null : validators;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read the validators of " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Keeps the validators of the cached response, so the next request for the key can be
+     * conditional. Only call this once the forecast in the response is saved.
+     *
+     * @param key        The request URL
+     * @param validators What the server sent, or null or empty to drop what is kept.
+     */
+    public synchronized void putValidators(String key, NetworkUtils.Validators validators) {
+        String name = fileName(key);
+        if (validators == null || validators.isEmpty() || !mEntries.containsKey(name)) {
+            validatorsFile(name).delete();
+            return;
+        }
+        /* Header values can't contain line breaks, so one per line is unambiguous */
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(validatorsFile(name)), StandardCharsets.UTF_8)) {
+            writer.write(validators.eTag == null ? "" : validators.eTag);
+            writer.write('\n');
+            writer.write(validators.lastModified == null ? "" : validators.lastModified);
+            writer.write('\n');
+        } catch (IOException e) {
+            Log.w(TAG, "Could not keep the validators of " + key, e);
+            validatorsFile(name).delete();
+        }
+    }
+
+    /**
+     * Drops the validators kept for the key, so the next request for it is unconditional.
+     * Used when the data a 304 would point back to is no longer available.
+     *
+     * @param key The request URL
+     */
+    public synchronized void removeValidators(String key) {
+        validatorsFile(fileName(key)).delete();
+    }
+
+    /**
+     * Drops the cached response for the key, e.g. because it turned out not to hold a usable
+     * forecast and must not be served as fresh.
+     *
+     * @param key The request URL
+     */
+    public synchronized void remove(String key) {
+        removeFile(fileName(key));
+    }
+
+    /**
+     * Copies the whole body to disk, then returns a stream over the cached copy, so the caller
+     * can parse the response without keeping it in memory. The entry counts as fresh from
+     * then on; if the body turns out to be unusable, the caller must {@link #remove(String)}
+     * it.
+     *
+     * @param key      The request URL
+     * @param body     The body of the response. It is read to the end but not closed.
+     * @param sizeHint The size of the body if known, e.g. from Content-Length, or -1. A known
+     *                 size lets the body be copied through one buffer of that size.
+     * @return The cached body, which the caller must close.
+     * @throws IOException If the body could not be read or written.
+     */
+    public InputStream put(String key, InputStream body, int sizeHint) throws IOException {
+        String name = fileName(key);
+
+        /* Write outside of the lock so a slow download doesn't block other readers */
+        File tmp = File.createTempFile(name, ".tmp", mDirectory);
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            byte[] buffer = new byte[sizeHint > 0
+                    ? Math.min(sizeHint, MAX_COPY_BUFFER_SIZE)
+                    : COPY_BUFFER_SIZE];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+
+        synchronized (this) {
+            removeFile(name);
+            File file = new File(mDirectory, name);
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Could not cache the response for " + key);
+            }
+            mEntries.put(name, file);
+            mSize += file.length();
+
+            /* Open before trimming, in case this entry alone is over the budget */
+            InputStream cached = new FileInputStream(file);
+            trimToSize();
+            return cached;
+        }
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ForecastResponseCache[hits=" + mHitCount + ", misses=" + mMissCount
+                + ", evictions=" + mEvictionCount + ", bytes=" + mSize + "/" + mMaxSize + "]";
+    }
+
+    private void removeFile(String name) {
+        File file = mEntries.remove(name);
+        if (file != null) {
+            mSize -= file.length();
+            file.delete();
+        }
+        validatorsFile(name).delete();
+    }
+
+    private void trimToSize() {
+        Iterator<File> iterator = mEntries.values().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            File eldest = iterator.next();
+            iterator.remove();
+            mSize -= eldest.length();
+            eldest.delete();
+            validatorsFile(eldest.getName()).delete();
+            mEvictionCount++;
+        }
+    }
+
+    private File validatorsFile(String name) {
+        return new File(mDirectory, name + VALIDATORS_SUFFIX);
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * URLs can't be used as file names, so the cache stores each response under the MD5 of
+     * its URL.
+     */
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5")
+                    .digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.android.sunshine.Utilities;
+
+/**
+ * Buckets coordinates into geohash cells, so that nearby positions share one location key.
+ * A geohash splits the world into cells that get smaller with every character: 5 characters
+ * is about 4.9 x 4.9 km, 6 is about 1.2 x 0.6 km and 7 about 150 x 150 m.
+ */
+public final class GeoHash {
+
+    /* Prefix of the location keys made from a geohash, so they can't clash with a query */
+    private static final String LOCATION_KEY_PREFIX = "geo:";
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    private static final int BITS_PER_CHARACTER = 5;
+
+    /* Deep enough that both halves of the cell fit comfortably in a double */
+    private static final int MAX_PRECISION = 12;
+
+    private GeoHash() {
+    }
+
+    /**
+     * @param lat       Latitude, -90 to 90
+     * @param lon       Longitude, -180 to 180
+     * @param precision Number of characters, 1 to 12
+     * @return The geohash of the cell the coordinates fall in.
+     */
+    public static String encode(double lat, double lon, int precision) {
+        if (precision < 1 || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Unsupported precision: " + precision);
+        }
+
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        StringBuilder hash = new StringBuilder(precision);
+        boolean evenBit = true;
+        int bit = 0;
+        int character = 0;
+
+        while (hash.length() < precision) {
+            /* Bits alternate between longitude and latitude, longitude first */
+            if (evenBit) {
+                double middle = (minLon + maxLon) / 2;
+                if (lon >= middle) {
+                    character = (character << 1) | 1;
+                    minLon = middle;
+                } else {
+                    character <<= 1;
+                    maxLon = middle;
+                }
+            } else {
+                double middle = (minLat + maxLat) / 2;
+                if (lat >= middle) {
+                    character = (character << 1) | 1;
+                    minLat = middle;
+                } else {
+                    character <<= 1;
+                    maxLat = middle;
+                }
+            }
+            evenBit = !evenBit;
+
+            if (++bit == BITS_PER_CHARACTER) {
+                hash.append(BASE32.charAt(character));
+                bit = 0;
+                character = 0;
+            }
+        }
+        return hash.toString();
+    }
+
+    /**
+     * @param hash A geohash
+     * @return The latitude and longitude of the center of its cell.
+     */
+    public static double[] decodeCenter(String hash) {
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        boolean evenBit = true;
+
+        for (int i = 0; i < hash.length(); i++) {
+            int character = BASE32.indexOf(hash.charAt(i));
+            if (character < 0) {
+                throw new IllegalArgumentException("Not a geohash: " + hash);
+            }
+            for (int mask = 1 << (BITS_PER_CHARACTER - 1); mask != 0; mask >>= 1) {
+                boolean set = (character & mask) != 0;
+                if (evenBit) {
+                    double middle = (minLon + maxLon) / 2;
+                    if (set) {
+                        minLon = middle;
+                    } else {
+                        maxLon = middle;
+                    }
+                } else {
+                    double middle = (minLat + maxLat) / 2;
+                    if (set) {
+                        minLat = middle;
+                    } else {
+                        maxLat = middle;
+                    }
+                }
+                evenBit = !evenBit;
+            }
+        }
+        return new double[]{(minLat + maxLat) / 2, (minLon + maxLon) / 2};
+    }
+
+    /**
+     * Makes the location key of the cell the coordinates fall in. Every position in the cell
+     * gets the same key, so they share one stored forecast, cache entry and request.
+     *
+     * @param lat       Latitude, -90 to 90
+     * @param lon       Longitude, -180 to 180
+     * @param precision Number of geohash characters, 1 to 12
+     * @return A location key such as "geo:9q9hvu".
+     */
+    public static String toLocationKey(double lat, double lon, int precision) {
+        return LOCATION_KEY_PREFIX + encode(lat, lon, precision);
+    }
+
+    /**
+     * @param location A location, as used by the forecast store and the sync
+     * @return true if it was made by {@link #toLocationKey(double, double, int)}.
+     */
+    public static boolean isLocationKey(String location) {
+        return location.startsWith(LOCATION_KEY_PREFIX);
+    }
+
+    /**
+     * @param locationKey A key made by {@link #toLocationKey(double, double, int)}
+     * @return The latitude and longitude of the center of its cell.
+     */
+    public static double[] decodeLocationKey(String locationKey) {
+        return decodeCenter(locationKey.substring(LOCATION_KEY_PREFIX.length()));
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.android.sunshine.Utilities;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Hands out HTTP connections so that sockets are reused between forecast requests.
+ * <p>
+ * HttpURLConnection already keeps idle keep-alive sockets in a pool shared by the whole
+ * process, and that pool is set up by the platform before the app runs. This class doesn't
+ * try to change it; it limits how many requests may be in flight to one host at a time, and
+ * makes sure a finished connection goes back to that pool instead of being torn down.
+ */
+public final class HttpConnectionPool {
+
+    /* The most requests we run against a single host at the same time */
+    public static final int MAX_CONNECTIONS_PER_HOST = 4;
+
+    private static final ConcurrentMap<String, Semaphore> sHostPermits =
+            new ConcurrentHashMap<>();
+
+    private HttpConnectionPool() {
+    }
+
+    /**
+     * Opens a connection to the URL, waiting first if {@link #MAX_CONNECTIONS_PER_HOST}
+     * requests to its host are already running. Every connection returned by this method must
+     * be handed back through {@link #releaseConnection(HttpURLConnection, boolean)}.
+     *
+     * @param url The URL to connect to.
+     * @return A connection that has not been connected yet.
+     * @throws IOException If the connection can't be opened or the wait was interrupted.
+     */
+    public static HttpURLConnection openConnection(URL url) throws IOException {
+        Semaphore permits = getPermits(url);
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection to "
+                    + url.getHost());
+        }
+
+        try {
+            return (HttpURLConnection) url.openConnection();
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Hands a connection back.
+     *
+     * @param urlConnection A connection from {@link #openConnection(URL)}.
+     * @param reusable      true if the response was read to the end and its stream closed,
+     *                      so the socket can go back to the pool. Otherwise its state is
+     *                      unknown and it is disconnected.
+     */
+    public static void releaseConnection(HttpURLConnection urlConnection, boolean reusable) {
+        try {
+            if (!reusable) {
+                urlConnection.disconnect();
+            }
+        } finally {
+            getPermits(urlConnection.getURL()).release();
+        }
+    }
+
+    private static Semaphore getPermits(URL url) {
+        String host = url.getHost();
+        Semaphore permits = sHostPermits.get(host);
+        if (permits == null) {
+            Semaphore created = new Semaphore(MAX_CONNECTIONS_PER_HOST, true);
+            permits = sHostPermits.putIfAbsent(host, created);
+            if (permits == null) {
+                permits = created;
+            }
+        }
+        return permits;
+    }
+}
@@ -3,12 +3,19 @@ package com.example.android.sunshine.Utilities;
 import android.net.Uri;
 import android.util.Log;
 
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -50,6 +57,28 @@ public final class NetworkUtils {
     final static String UNITS_PARAM = "units";
     final static String DAYS_PARAM = "cnt";
 
+    /* Size of the gzip decoder's input buffer */
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    /*
+     * Transient failures (timeouts, dropped connections, 5xx and 429 answers) are retried up
+     * to MAX_ATTEMPTS times in all. Before retry n we wait a random time between 0 and
+     * RETRY_BASE_DELAY_MILLIS * 2^(n-1), capped at RETRY_MAX_DELAY_MILLIS. The randomness keeps
+     * clients that failed together from all coming back at the same moment.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BASE_DELAY_MILLIS = 500;
+    private static final long RETRY_MAX_DELAY_MILLIS = 8 * SunshineDateUtils.SECOND_IN_MILLIS;
+
+    private static final Random sJitter = new Random();
+
+    /*
+     * Totals over all streamed responses: bytes as they came over the wire, and bytes after
+     * gzip/deflate decoding. Their ratio is what compression saves us.
+     */
+    private static final AtomicLong sTransferredBytes = new AtomicLong();
+    private static final AtomicLong sDecodedBytes = new AtomicLong();
+
     /**
      * Builds the URL used to talk to the weather server using a location.
      * This location is based on the query capabilities(возможности запроса)
@@ -89,35 +118,438 @@ public final class NetworkUtils {
      * @return The Url to use to query the weather server.
      */
     public static URL buildUrl(Double lat, Double lon) {
-        /** This will be implemented in a future lesson **/
-        return null;
+        Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+                .appendQueryParameter(LAT_PARAM, String.valueOf(lat))
+                .appendQueryParameter(LON_PARAM, String.valueOf(lon))
+                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .build();
+
+        URL url = null;
+        try {
+            url = new URL(builtUri.toString());
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+        }
+
+        Log.v(TAG, "Built URI " + url);
+
+        return url;
+    }
+
+    /**
+     * Builds the URL for a location as the forecast store and the sync know it: either a
+     * location query, or a geohash location key. A key is requested by the center of its
+     * cell, so every position in the cell makes exactly the same request.
+     *
+     * @param location A location query, or a key made by
+     *                 {@link GeoHash#toLocationKey(double, double, int)}
+     * @return The URL to use to query the weather server.
+     */
+    public static URL buildUrlForLocation(String location) {
+        if (!GeoHash.isLocationKey(location)) {
+            return buildUrl(location);
+        }
+        double[] center = GeoHash.decodeLocationKey(location);
+        return buildUrl(center[0], center[1]);
     }
 
     /**
-     * This method returns the entire result from the HTTP response.
+     * Opens the body of the HTTP response as a stream. The body is requested compressed and
+     * decoded on the fly as it is read. The connection is handed back to the
+     * {@link HttpConnectionPool} when the stream is closed.
+     * <p>
+     * If validators of an earlier response for the same URL are passed in, the request is made
+     * conditional. When the server answers 304 Not Modified there is no body to read and this
+     * method returns null; the caller should reuse the forecast it stored from that earlier
+     * response. The validators of the new response are available from
+     * {@link #getValidators(InputStream)} once it has been read to the end.
+     * <p>
+     * Transient failures to connect or to get a response status are retried with backoff, and
+     * no request is made at all while the host's {@link CircuitBreaker} is open. Errors while
+     * the returned body is read are not retried.
      *
-     * @param url The URL to fetch the HTTP response from.
-     * @return The contents of the HTTP response.
-     * @throws IOException Related to network and stream reading
+     * @param url        The URL to fetch the HTTP response from.
+     * @param validators The validators of the response we saved for the URL, or null to make
+     *                   an unconditional request.
+     * @return The body of the HTTP response, which the caller must close, or null if the
+     * server reports the previously fetched response is still current.
+     * @throws IOException Related to network and stream reading, or
+     *                     {@link CircuitBreaker.OpenException} if the host is failing
      */
-    public static String getResponseFromHttpUrl(URL url) throws IOException {
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+    public static InputStream getResponseStreamFromHttpUrl(final URL url,
+                                                           final Validators validators)
+            throws IOException {
+        return withRetry(url, new Attempt<InputStream>() {
+            @Override
+            public InputStream run() throws IOException {
+                return openResponseStream(url, validators);
+            }
+        });
+    }
+
+    private static InputStream openResponseStream(URL url, Validators validators)
+            throws IOException {
+        final String key = url.toString();
+        final HttpURLConnection urlConnection = HttpConnectionPool.openConnection(url);
+        final CountingInputStream transferred;
+        final CountingInputStream decoded;
         try {
-            InputStream in = urlConnection.getInputStream();
+            /*
+             * Setting Accept-Encoding ourselves turns off the platform's transparent gzip
+             * handling, so we get to see and count the compressed bytes. We decode them below.
+             */
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip, deflate");
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+            if (validators != null) {
+                if (validators.eTag != null) {
+                    urlConnection.setRequestProperty("If-None-Match", validators.eTag);
+                }
+                if (validators.lastModified != null) {
+                    urlConnection.setRequestProperty("If-Modified-Since",
+                            validators.lastModified);
+                }
+            }
 
-            boolean hasInput = scanner.hasNext();
-            if (hasInput) {
-                return scanner.next();
-            } else {
+            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                /* A 304 has no body, so the socket is immediately free for the next request */
+                HttpConnectionPool.releaseConnection(urlConnection, true);
                 return null;
             }
-        } finally {
-            urlConnection.disconnect();
+            checkForServerError(urlConnection);
+
+            transferred = new CountingInputStream(urlConnection.getInputStream());
+            decoded = new CountingInputStream(
+                    decode(transferred, urlConnection.getContentEncoding()));
+        } catch (IOException e) {
+            HttpConnectionPool.releaseConnection(urlConnection, false);
+            throw e;
+        }
+
+        /* Only handed out once the whole body has been read, see getValidators */
+        Validators received = new Validators(urlConnection.getHeaderField("ETag"),
+                urlConnection.getHeaderField("Last-Modified"));
+        /* Content-Length counts the bytes on the wire, so it's only the body size if unencoded */
+        int contentLength = urlConnection.getContentEncoding() == null
+                ? urlConnection.getContentLength()
+                : -1;
+        return new ResponseStream(key, urlConnection, transferred, decoded, received,
+                contentLength);
+    }
+
+    /**
+     * One try at a request, see {@link #withRetry(URL, Attempt)}.
+     */
+    private interface Attempt<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Runs the request, retrying transient failures with capped exponential backoff and
+     * jitter, and reports every outcome to the host's {@link CircuitBreaker}.
+     *
+     * @param url     The URL the request is for
+     * @param attempt Makes one try at the request
+     * @return What the successful try returned.
+     * @throws IOException The error of the last try if none succeeded, or
+     *                     {@link CircuitBreaker.OpenException} if the host is failing
+     */
+    private static <T> T withRetry(URL url, Attempt<T> attempt) throws IOException {
+        CircuitBreaker breaker = CircuitBreaker.forHost(url.getHost());
+        for (int tries = 1; ; tries++) {
+            breaker.checkAllowed();
+            try {
+                T result = attempt.run();
+                breaker.onSuccess();
+                return result;
+            } catch (IOException e) {
+                if (!isTransient(e)) {
+                    if (e instanceof InterruptedIOException) {
+                        breaker.onAbandoned();
+                    } else {
+                        /* The host answered, it just didn't like the request */
+                        breaker.onSuccess();
+                    }
+                    throw e;
+                }
+
+                breaker.onFailure();
+                if (tries == MAX_ATTEMPTS) {
+                    throw e;
+                }
+
+                long delayMillis = getRetryDelayMillis(tries);
+                Log.w(TAG, "Try " + tries + " for " + url + " failed (" + e
+                        + "), retrying in " + delayMillis + "ms");
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting to retry " + url);
+                }
+            } catch (RuntimeException e) {
+                breaker.onAbandoned();
+                throw e;
+            }
         }
     }
 
-}
+    /**
+     * @param tries How many tries failed so far, from 1
+     * @return A random delay between 0 and the capped exponential bound for the next retry.
+     */
+    private static long getRetryDelayMillis(int tries) {
+        long bound = Math.min(RETRY_MAX_DELAY_MILLIS, RETRY_BASE_DELAY_MILLIS << (tries - 1));
+        return (long) (sJitter.nextDouble() * bound);
+    }
 
+    /**
+     * @return true if trying again later may work: timeouts, broken connections and server
+     * errors. Client errors such as a 404, and interruptions, are final.
+     */
+    private static boolean isTransient(IOException e) {
+        if (e instanceof CircuitBreaker.OpenException || e instanceof FileNotFoundException) {
+            return false;
+        }
+        if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+            return false;
+        }
+        if (e instanceof HttpStatusException) {
+            return ((HttpStatusException) e).isTransient();
+        }
+        return true;
+    }
+
+    /**
+     * Fails the request with an {@link HttpStatusException} if the server answered with an
+     * error, so it can be told apart from a broken connection.
+     */
+    private static void checkForServerError(HttpURLConnection urlConnection) throws IOException {
+        int responseCode = urlConnection.getResponseCode();
+        if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            throw new HttpStatusException(responseCode, urlConnection.getURL());
+        }
+    }
+
+    /**
+     * @return The number of response bytes received over the wire by streamed requests.
+     */
+    public static long getTransferredByteCount() {
+        return sTransferredBytes.get();
+    }
+
+    /**
+     * @return The number of response bytes streamed requests produced after decoding.
+     */
+    public static long getDecodedByteCount() {
+        return sDecodedBytes.get();
+    }
+
+    /**
+     * Wraps the body in a decoder matching its Content-Encoding. Decoding happens as the
+     * stream is read, the body is never inflated into memory as a whole.
+     *
+     * @param body            The body as it came over the wire.
+     * @param contentEncoding The Content-Encoding header, null if none.
+     * @return A stream of the decoded body.
+     * @throws IOException If the gzip header can't be read
+     */
+    private static InputStream decode(InputStream body, String contentEncoding)
+            throws IOException {
+        if ("gzip".equalsIgnoreCase(contentEncoding)) {
+            return new GZIPInputStream(body, DEFAULT_BUFFER_SIZE);
+        } else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+            return new InflaterInputStream(body);
+        }
+        return body;
+    }
+
+    /**
+     * @param response A stream returned by
+     *                 {@link #getResponseStreamFromHttpUrl(URL, Validators)}
+     * @return The size of the decoded body as announced by Content-Length, or -1 if the
+     * server didn't send one or the body is compressed. Lets a reader size its buffer once.
+     */
+    public static int getContentLength(InputStream response) {
+        if (!(response instanceof ResponseStream)) {
+            return -1;
+        }
+        return ((ResponseStream) response).mContentLength;
+    }
+
+    /**
+     * Returns the validators that came with the response, to be passed in the next request
+     * for the URL. Keep them only once the forecast in the response is saved: a 304 to the
+     * next request means "reuse what you saved", so validators of a body that was cut off or
+     * failed to parse would point at data we don't have.
+     *
+     * @param response A stream returned by
+     *                 {@link #getResponseStreamFromHttpUrl(URL, Validators)}
+     * @return Its validators, or null if it wasn't read to the end.
+     */
+    public static Validators getValidators(InputStream response) {
+        if (!(response instanceof ResponseStream)) {
+            return null;
+        }
+        ResponseStream responseStream = (ResponseStream) response;
+        return responseStream.mReachedEnd ? responseStream.mValidators : null;
+    }
+
+    /**
+     * The decoded body of a response. Closing it drains what the parser left unread and hands
+     * the connection back to the pool.
+     */
+    private static final class ResponseStream extends FilterInputStream {
+        private final String mKey;
+        private final HttpURLConnection mUrlConnection;
+        private final CountingInputStream mTransferred;
+        private final CountingInputStream mDecoded;
+        private final Validators mValidators;
+        private final int mContentLength;
+
+        /* Set once a read hits the end of the body */
+        private volatile boolean mReachedEnd;
+        private boolean mClosed;
+
+        ResponseStream(String key, HttpURLConnection urlConnection,
+                       CountingInputStream transferred, CountingInputStream decoded,
+                       Validators validators, int contentLength) {
+            super(decoded);
+            mKey = key;
+            mUrlConnection = urlConnection;
+            mTransferred = transferred;
+            mDecoded = decoded;
+            mValidators = validators;
+            mContentLength = contentLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                mReachedEnd = true;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read == -1) {
+                mReachedEnd = true;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+
+            boolean reusable = false;
+            try {
+                /*
+                 * The parser stops at the end of the JSON object. Whatever follows (the gzip
+                 * trailer, trailing whitespace) has to be consumed, or the platform can't
+                 * reuse the socket.
+                 */
+                byte[] rest = new byte[512];
+                while (read(rest) != -1) {
+                    /* discard */
+                }
+                super.close();
+                reusable = true;
+            } finally {
+                HttpConnectionPool.releaseConnection(mUrlConnection, reusable);
+                sTransferredBytes.addAndGet(mTransferred.getCount());
+                sDecodedBytes.addAndGet(mDecoded.getCount());
+                Log.v(TAG, "Received " + mTransferred.getCount() + " bytes for "
+                        + mDecoded.getCount() + " bytes of " + mKey);
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes read through it.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * The server answered with an error status.
+     */
+    private static final class HttpStatusException extends IOException {
+        /* Too Many Requests, not in HttpURLConnection */
+        private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+        final int responseCode;
+
+        HttpStatusException(int responseCode, URL url) {
+            super("HTTP " + responseCode + " for " + url);
+            this.responseCode = responseCode;
+        }
+
+        boolean isTransient() {
+            return responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                    || responseCode == HTTP_TOO_MANY_REQUESTS;
+        }
+    }
+
+    /**
+     * The cache validators the server sent with a full response. Either may be null.
+     */
+    public static final class Validators {
+        public final String eTag;
+        public final String lastModified;
+
+        public Validators(String eTag, String lastModified) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return true if the server sent neither, so no request can be made conditional.
+         */
+        public boolean isEmpty() {
+            return eTag == null && lastModified == null;
+        }
+    }
+
+}
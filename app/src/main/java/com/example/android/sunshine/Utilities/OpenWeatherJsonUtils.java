@@ -2,11 +2,17 @@ package com.example.android.sunshine.Utilities;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.util.JsonReader;
+
+import com.example.android.sunshine.Data.ForecastBatch;
+import com.example.android.sunshine.Data.WeatherContract.WeatherEntry;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 
 /**
@@ -15,32 +21,261 @@ import java.net.HttpURLConnection;
 
 public final class OpenWeatherJsonUtils {
 
+    /* Weather information. Each day's forecast info is an element of the "list" array */
+    private static final String OWM_LIST = "list";
+
+    /* All temperatures are children of the "temp" object */
+    private static final String OWM_TEMPERATURE = "temp";
+
+    /* Max temperature for the day */
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_WEATHER_ID = "id";
+
+    /* The number of days the server returns by default, used to presize buffers */
+    private static final int EXPECTED_DAYS = 16;
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    /* The location the forecast is for: its name and its "coord" object */
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
     /**
-     * This method parses JSON from a web response and returns an array of Strings
-     * describing the weather over various days from the forecast.
+     * Streams the JSON forecast into a columnar {@link ForecastBatch}. No per-day objects are
+     * created; every value goes straight into the primitive arrays of the batch.
+     *
+     * @param forecastJsonReader A Reader positioned at the start of the JSON response.
+     * @return The parsed forecast, or null if the server reported an error or the response had
+     * no forecast list.
+     * @throws IOException If the JSON is malformed or the Reader fails.
      */
-    public static String[] getSimpleWeatherStringsFromJson(Context context,
-                                                           String forecastJsonStr)
-            throws JSONException {
+    public static ForecastBatch getForecastBatchFromJson(Reader forecastJsonReader)
+            throws IOException {
+        return getForecastBatchFromJson(forecastJsonReader, null);
+    }
 
-        /** Weather information.Each day's forecast info is an element of the
-         * "list"  array*. */
-        final String OWM_LIST = "list";
+    /**
+     * Streams the JSON forecast into a columnar {@link ForecastBatch}, and reads which city
+     * the server resolved the request to along the way.
+     *
+     * @param forecastJsonReader A Reader positioned at the start of the JSON response.
+     * @param city               Receives the name and coordinates of the city, or null to
+     *                           skip them. Left cleared if the response doesn't have them.
+     * @return The parsed forecast, or null if the server reported an error or the response had
+     * no forecast list.
+     * @throws IOException If the JSON is malformed or the Reader fails.
+     */
+    public static ForecastBatch getForecastBatchFromJson(Reader forecastJsonReader,
+                                                         CityRecord city) throws IOException {
+        if (city != null) {
+            city.clear();
+        }
 
-        /* All temperatures are children of the "temp" object */
-        final String OWM_TEMPERATURE = "temp";
+        JsonReader reader = new JsonReader(forecastJsonReader);
 
-        /* Max temperature for the day */
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        long localDate = System.currentTimeMillis();
+        long utcDate = SunshineDateUtils.getUTCDateFromLocal(localDate);
+        long startDay = SunshineDateUtils.normalizeDate(utcDate);
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
+        ForecastBatch.Builder builder = null;
 
-        final String OWM_MESSAGE_CODE = "cod";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                if (reader.nextInt() != HttpURLConnection.HTTP_OK) {
+                    return null;
+                }
+            } else if (OWM_LIST.equals(name)) {
+                builder = new ForecastBatch.Builder(EXPECTED_DAYS);
+                DayRecord day = new DayRecord();
+
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readDay(reader, day);
+                    long dateTimeMillis = startDay
+                            + SunshineDateUtils.DAY_IN_MILLIS * builder.size();
+                    builder.add(dateTimeMillis, day.low, day.high, day.pressure, day.humidity,
+                            day.windSpeed, day.windDirection, day.weatherId);
+                }
+                reader.endArray();
+            } else if (OWM_CITY.equals(name) && city != null) {
+                readCity(reader, city);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (builder == null) {
+            return null;
+        }
+        return builder.build();
+    }
 
-        /* String array to hold each day's weather String */
-        String[] parsedWeatherData = null;
+    /**
+     * Reads one element of the "list" array into the given record. Fields we don't use
+     * are skipped without being decoded.
+     *
+     * @param reader A JsonReader positioned at the start of a day object.
+     * @param day    The record to fill, its previous values are overwritten.
+     * @throws IOException If the JSON is malformed.
+     */
+    private static void readDay(JsonReader reader, DayRecord day) throws IOException {
+        day.high = 0;
+        day.low = 0;
+        day.pressure = 0;
+        day.humidity = 0;
+        day.windSpeed = 0;
+        day.windDirection = 0;
+        day.weatherId = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        day.high = reader.nextDouble();
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        day.low = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_PRESSURE.equals(name)) {
+                day.pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                day.humidity = reader.nextDouble();
+            } else if (OWM_WINDSPEED.equals(name)) {
+                day.windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                day.windDirection = reader.nextDouble();
+            } else if (OWM_WEATHER.equals(name)) {
+                /* "weather" is an array that is 1 element long, we only read the first one */
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_WEATHER_ID.equals(weatherName)) {
+                            day.weatherId = reader.nextInt();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads the "city" object of the response, e.g.
+     * {"name": "Mountain View", "coord": {"lon": -122.0838, "lat": 37.3861}, ...}
+     *
+     * @param reader A JsonReader positioned at the start of the city object.
+     * @param city   The record to fill.
+     * @throws IOException If the JSON is malformed.
+     */
+    private static void readCity(JsonReader reader, CityRecord city) throws IOException {
+        boolean hasLat = false;
+        boolean hasLon = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                city.name = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        city.lat = reader.nextDouble();
+                        hasLat = true;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        city.lon = reader.nextDouble();
+                        hasLon = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        city.hasCoordinates = hasLat && hasLon;
+    }
+
+    /**
+     * The city a forecast response is for, as resolved by the server from the request.
+     */
+    public static final class CityRecord {
+        public String name;
+        public double lat;
+        public double lon;
+
+        /* false if the response had no complete "coord" object */
+        public boolean hasCoordinates;
+
+        void clear() {
+            name = null;
+            lat = 0;
+            lon = 0;
+            hasCoordinates = false;
+        }
+    }
+
+    /**
+     * The values of a single day that the streaming parser keeps while walking the "list"
+     * array. One instance is reused for every day.
+     */
+    private static final class DayRecord {
+        double high;
+        double low;
+        double pressure;
+        double humidity;
+        double windSpeed;
+        double windDirection;
+        int weatherId;
+    }
+
+    /**
+     * Parse the JSON and convert it into ContentValues
+     * that can be inserted into our database.
+     *
+     * @param context         An application context, such as a service or activity context.
+     * @param forecastJsonStr The JSON to parse into ContentValues.
+     * @return An array of ContentValues parsed from the JSON.
+     */
+    public static ContentValues[] getFullWeatherDataFromJson(Context context,
+                                                             String forecastJsonStr)
+            throws JSONException {
 
         JSONObject forecastJson = new JSONObject(forecastJsonStr);
 
@@ -60,74 +295,49 @@ public final class OpenWeatherJsonUtils {
             }
         }
 
+        JSONArray jsonWeatherArray = forecastJson.getJSONArray(OWM_LIST);
 
-        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-        parsedWeatherData = new String[weatherArray.length()];
+        ContentValues[] weatherContentValues = new ContentValues[jsonWeatherArray.length()];
 
         long localDate = System.currentTimeMillis();
         long utcDate = SunshineDateUtils.getUTCDateFromLocal(localDate);
         long startDay = SunshineDateUtils.normalizeDate(utcDate);
 
-        for (int i = 0; i < weatherArray.length(); i++) {
-            String date;
-            String highAndLow;
-
-            /* These are the values that will be collected */
-            long dateTimeMillis;
-            double high;
-            double low;
-            String description;
+        for (int i = 0; i < jsonWeatherArray.length(); i++) {
 
             /* Get the JSON object representing the day */
-            JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-            /*
-             * We ignore all the datetime values embedded in the JSON and assume that
-             * the values are returned in-order by day
-             * (which is not guaranteed to be correct).
-             */
-            dateTimeMillis = startDay + SunshineDateUtils.DAY_IN_MILLIS * i;
-            date = SunshineDateUtils.getFriendlyDateString(context, dateTimeMillis, false);
-
-            /*
-             * Description is in a child array called "weather", which is 1 element long.
-             * That element also contains a weather code.
-             */
+            JSONObject dayForecast = jsonWeatherArray.getJSONObject(i);
+
+            /* Same assumption as the simple parser: days are returned in order */
+            long dateTimeMillis = startDay + SunshineDateUtils.DAY_IN_MILLIS * i;
+
+            double pressure = dayForecast.optDouble(OWM_PRESSURE, 0);
+            double humidity = dayForecast.optDouble(OWM_HUMIDITY, 0);
+            double windSpeed = dayForecast.optDouble(OWM_WINDSPEED, 0);
+            double windDirection = dayForecast.optDouble(OWM_WIND_DIRECTION, 0);
+
             JSONObject weatherObject =
                     dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-            description = weatherObject.getString(OWM_DESCRIPTION);
-
-            /*
-             * Temperatures are sent by Open Weather Map in a child object called "temp".
-             *
-             * Editor's Note: Try not to name variables "temp" when working with temperature.
-             * It confuses everybody. Temp could easily mean any number of things, including
-             * temperature, temporary and is just a bad variable name.
-             */
-            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-            high = temperatureObject.getDouble(OWM_MAX);
-            low = temperatureObject.getDouble(OWM_MIN);
-            highAndLow = SunshineWeatherUtils.formatHighLows(context, high, low);
+            int weatherId = weatherObject.getInt(OWM_WEATHER_ID);
 
-            parsedWeatherData[i] = date + " - " + description + " - " + highAndLow;
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            double high = temperatureObject.getDouble(OWM_MAX);
+            double low = temperatureObject.getDouble(OWM_MIN);
+
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_DATE, dateTimeMillis);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, humidity);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, pressure);
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, windDirection);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, low);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+
+            weatherContentValues[i] = weatherValues;
         }
 
-        return parsedWeatherData;
-    }
-
-    /**
-     * Parse the JSON and convert it into ContentValues
-     * that can be inserted into our database.
-     *
-     * @param context         An application context, such as a service or activity context.
-     * @param forecastJsonStr The JSON to parse into ContentValues.
-     * @return An array of ContentValues parsed from the JSON.
-     */
-    public static ContentValues[] getFullWeatherDataFromJson(Context context,
-                                                             String forecastJsonStr) {
-        /** This will be implemented in a future lesson **/
-        return null;
+        return weatherContentValues;
     }
 
 }
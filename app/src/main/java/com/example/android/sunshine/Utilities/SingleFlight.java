@@ -0,0 +1,70 @@
+package com.example.android.sunshine.Utilities;
+
+import androidx.core.os.OperationCanceledException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Makes sure only one call per key runs at a time. Callers that arrive while a call for their
+ * key is in flight don't start their own; they wait for the running one and get its result,
+ * or its exception. Once the call completes the key is free again.
+ *
+ * @param <K> The type of the key, e.g. the request URL
+ * @param <V> The type of the result
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> mCalls = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the call on the current thread, unless a call for the same key is already in flight,
+     * in which case it waits for that one instead. If the call it waited for was cancelled,
+     * the cancellation belongs to its own caller: this one then runs the call itself.
+     *
+     * @param key  Identifies calls that would do the same work
+     * @param call The work to do if nobody is doing it yet
+     * @return The result of whichever call ran.
+     * @throws IOException If the call failed with one, or the wait was interrupted.
+     */
+    public V execute(K key, Callable<V> call) throws IOException {
+        while (true) {
+            FutureTask<V> task = new FutureTask<>(call);
+            FutureTask<V> inFlight = mCalls.putIfAbsent(key, task);
+            if (inFlight == null) {
+                inFlight = task;
+                try {
+                    task.run();
+                } finally {
+                    mCalls.remove(key, task);
+                }
+            }
+
+            try {
+                return inFlight.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + key);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof OperationCanceledException && inFlight != task) {
+                    /* Somebody else's call was cancelled, not ours: try again */
+                    continue;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+}
@@ -1,11 +1,18 @@
 package com.example.android.sunshine.Utilities;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.text.format.DateUtils;
+import android.util.LongSparseArray;
+
+import androidx.core.os.ConfigurationCompat;
 
 import com.example.android.sunshine.R;
 
 import java.text.SimpleDateFormat;
+import java.util.Locale;
 import java.util.TimeZone;
 
 /**
@@ -22,6 +29,39 @@ public final class SunshineDateUtils {
     public static final long DAY_IN_MILLIS =
             HOUR_IN_MILLIS * 24;
 
+    /*
+     * Friendly date labels already built, by date. A label depends on the locale, the time
+     * zone and what day today is, so the cache is only valid for the values below and is
+     * cleared as soon as one of them changes. All guarded by sLabelLock.
+     */
+    private static final Object sLabelLock = new Object();
+    private static final LongSparseArray<String> sShortLabels = new LongSparseArray<>();
+    private static final LongSparseArray<String> sFullLabels = new LongSparseArray<>();
+    private static Locale sLabelLocale;
+    private static TimeZone sLabelTimeZone;
+    private static long sLabelToday;
+
+    /* SimpleDateFormat isn't thread-safe, this one is only used under sLabelLock */
+    private static SimpleDateFormat sDayNameFormat;
+
+    private static boolean sLabelReceiverRegistered;
+
+    /*
+     * Drops the cached labels when the locale or the time zone changes. The time zone is
+     * cached with the labels, so it has to be read again too.
+     */
+    private static final BroadcastReceiver sLabelInvalidator = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            synchronized (sLabelLock) {
+                sLabelTimeZone = null;
+                sLabelLocale = null;
+                sShortLabels.clear();
+                sFullLabels.clear();
+            }
+        }
+    };
+
     /**
      * This method returns the number of days
      *          since the epoch (January 01, 1970, 12:00 Midnight UTC)
@@ -99,7 +139,47 @@ public final class SunshineDateUtils {
      * or "Friday"
      */
     public static String getFriendlyDateString(Context context, long dateInMillis, boolean showFullDate) {
+        Locale locale = ConfigurationCompat.getLocales(
+                context.getResources().getConfiguration()).get(0);
+
+        synchronized (sLabelLock) {
+            if (!sLabelReceiverRegistered) {
+                IntentFilter filter = new IntentFilter(Intent.ACTION_LOCALE_CHANGED);
+                filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+                context.getApplicationContext().registerReceiver(sLabelInvalidator, filter);
+                sLabelReceiverRegistered = true;
+            }
+            if (sLabelTimeZone == null) {
+                sLabelTimeZone = TimeZone.getDefault();
+            }
+
+            long now = System.currentTimeMillis();
+            long today = (now + sLabelTimeZone.getOffset(now)) / DAY_IN_MILLIS;
+            if (!locale.equals(sLabelLocale) || today != sLabelToday) {
+                sShortLabels.clear();
+                sFullLabels.clear();
+                sLabelLocale = locale;
+                sLabelToday = today;
+                sDayNameFormat = new SimpleDateFormat("EEEE", locale);
+                sDayNameFormat.setTimeZone(sLabelTimeZone);
+            }
+
+            LongSparseArray<String> labels = showFullDate ? sFullLabels : sShortLabels;
+            String label = labels.get(dateInMillis);
+            if (label == null) {
+                label = buildFriendlyDateString(context, dateInMillis, showFullDate);
+                labels.put(dateInMillis, label);
+            }
+            return label;
+        }
+    }
 
+    /**
+     * Builds the label returned by {@link #getFriendlyDateString(Context, long, boolean)}.
+     * Must be called under sLabelLock.
+     */
+    private static String buildFriendlyDateString(Context context, long dateInMillis,
+                                                  boolean showFullDate) {
         long localDate = getLocalDateFromUTC(dateInMillis);
         long dayNumber = getDayNumber(localDate);
         long currentDayNumber = getDayNumber(System.currentTimeMillis());
@@ -122,7 +202,7 @@ public final class SunshineDateUtils {
                  * documentation on DateFormat#getBestDateTimePattern(Locale, String)
                  * https://developer.android.com/reference/android/text/format/DateFormat.html#getBestDateTimePattern
                  */
-                String localizedDayName = new SimpleDateFormat("EEEE").format(localDate);
+                String localizedDayName = sDayNameFormat.format(localDate);
                 return readableDate.replace(localizedDayName, dayName);
             } else {
                 return readableDate;
@@ -159,7 +239,7 @@ public final class SunshineDateUtils {
 
     /**
      * Given a day, returns just the name to use for that day.
-     *   E.g "today", "tomorrow", "Wednesday".
+     *   E.g "today", "tomorrow", "Wednesday". Must be called under sLabelLock.
      *
      * @param context      Context to use for resource localization
      * @param dateInMillis The date in milliseconds (local time)
@@ -182,8 +262,7 @@ public final class SunshineDateUtils {
              * Otherwise, if the day is not today, the format is just the day of the week
              * (e.g "Wednesday")
              */
-            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
-            return dayFormat.format(dateInMillis);
+            return sDayNameFormat.format(dateInMillis);
         }
     }
 }
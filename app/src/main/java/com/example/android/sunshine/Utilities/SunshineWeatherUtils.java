@@ -1,11 +1,20 @@
 package com.example.android.sunshine.Utilities;
 
 import android.content.Context;
+import android.content.res.Resources;
 import android.util.Log;
 
+import androidx.core.os.ConfigurationCompat;
+
 import com.example.android.sunshine.Data.SunshinePreferences;
 import com.example.android.sunshine.R;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * Contains useful utilities for a weather app, such as conversion between
  * Celsius and Fahrenheit, from kph to mph, and from degrees to NSEW.
@@ -17,6 +26,22 @@ public final class SunshineWeatherUtils {
     private static final String LOG_TAG =
             SunshineWeatherUtils.class.getSimpleName();
 
+    /* Matches a java.util.Formatter placeholder such as %1.0f or %2$s */
+    private static final Pattern FORMAT_PLACEHOLDER =
+            Pattern.compile("%(?:\\d+\\$)?[-#+ 0,(]*\\d*(?:\\.\\d+)?[a-zA-Z]");
+
+    /* The unit strings of the current locale, replaced when the locale changes */
+    private static volatile UnitTemplates sUnitTemplates;
+
+    /* Reused by every format call on a thread, so formatting only allocates the result */
+    private static final ThreadLocal<StringBuilder> sFormatBuilder =
+            new ThreadLocal<StringBuilder>() {
+                @Override
+                protected StringBuilder initialValue() {
+                    return new StringBuilder(32);
+                }
+            };
+
     /**
      * This method will convert a temperature from Celsius to Fahrenheit.
      *
@@ -42,15 +67,32 @@ public final class SunshineWeatherUtils {
      * "21°C"
      */
     public static String formatTemperature(Context context, double temperature) {
-        int temperatureFormatResourceId = R.string.format_temperature_celsius;
+        StringBuilder builder = takeFormatBuilder();
+        appendTemperature(context, builder, temperature);
+        return builder.toString();
+    }
+
+    /**
+     * Appends the temperature formatted like {@link #formatTemperature(Context, double)}
+     * without allocating anything but what the builder needs to grow.
+     *
+     * @param context     Android Context to access preferences and resources
+     * @param builder     Where to append the temperature
+     * @param temperature Temperature in degrees Celsius (°C)
+     * @return The builder.
+     */
+    public static StringBuilder appendTemperature(Context context, StringBuilder builder,
+                                                  double temperature) {
+        UnitTemplates templates = getUnitTemplates(context);
+        String[] template = templates.celsius;
 
         if (!SunshinePreferences.isMetric(context)) {
             temperature = celsiusToFarenheit(temperature);
-            temperatureFormatResourceId = R.string.format_temperature_fahrenheit;
+            template = templates.fahrenheit;
         }
 
         /* For presentation, assume the user doesn't care about tenths of a degree. */
-        return String.format(context.getString(temperatureFormatResourceId), temperature);
+        return builder.append(template[0]).append(roundHalfUp(temperature)).append(template[1]);
     }
 
     /**
@@ -63,14 +105,25 @@ public final class SunshineWeatherUtils {
      * @return String in the form: "HIGH°C / LOW°C"
      */
     public static String formatHighLows(Context context, double high, double low) {
-        long roundedHigh = Math.round(high);
-        long roundedLow = Math.round(low);
-
-        String formattedHigh = formatTemperature(context, roundedHigh);
-        String formattedLow = formatTemperature(context, roundedLow);
+        StringBuilder builder = takeFormatBuilder();
+        appendHighLows(context, builder, high, low);
+        return builder.toString();
+    }
 
-        String highLowStr = formattedHigh + " / " + formattedLow;
-        return highLowStr;
+    /**
+     * Appends the temperatures formatted like {@link #formatHighLows(Context, double, double)}.
+     *
+     * @param context Android Context to access preferences and resources
+     * @param builder Where to append the temperatures
+     * @param high    High temperature for a day in user's preferred units
+     * @param low     Low temperature for a day in user's preferred units
+     * @return The builder.
+     */
+    public static StringBuilder appendHighLows(Context context, StringBuilder builder,
+                                               double high, double low) {
+        appendTemperature(context, builder, Math.round(high));
+        builder.append(" / ");
+        return appendTemperature(context, builder, Math.round(low));
     }
 
     /**
@@ -86,10 +139,11 @@ public final class SunshineWeatherUtils {
      */
     public static String getFormattedWind(Context context, float windSpeed, float degrees) {
 
-        int windFormat = R.string.format_wind_kmh;
+        UnitTemplates templates = getUnitTemplates(context);
+        String[] template = templates.kmh;
 
         if (!SunshinePreferences.isMetric(context)) {
-            windFormat = R.string.format_wind_mph;
+            template = templates.mph;
             windSpeed = .621371192237334f * windSpeed;
         }
 
@@ -115,7 +169,117 @@ public final class SunshineWeatherUtils {
         } else if (degrees >= 292.5 && degrees < 337.5) {
             direction = "NW";
         }
-        return String.format(context.getString(windFormat), windSpeed, direction);
+        return takeFormatBuilder()
+                .append(template[0]).append(roundHalfUp(windSpeed))
+                .append(template[1]).append(direction)
+                .append(template[2])
+                .toString();
+    }
+
+    private static StringBuilder takeFormatBuilder() {
+        StringBuilder builder = sFormatBuilder.get();
+        builder.setLength(0);
+        return builder;
+    }
+
+    /**
+     * Rounds like the %1.0f the unit strings used to be formatted with: halves go away from
+     * zero, so -2.5 becomes -3 where {@link Math#round(double)} would give -2.
+     */
+    private static long roundHalfUp(double value) {
+        return value < 0 ? -Math.round(-value) : Math.round(value);
+    }
+
+    private static UnitTemplates getUnitTemplates(Context context) {
+        Resources resources = context.getResources();
+        Locale locale = ConfigurationCompat.getLocales(resources.getConfiguration()).get(0);
+        UnitTemplates templates = sUnitTemplates;
+        if (templates == null || !templates.locale.equals(locale)) {
+            templates = new UnitTemplates(resources, locale);
+            sUnitTemplates = templates;
+        }
+        return templates;
+    }
+
+    /**
+     * The temperature and wind unit strings of one locale, split around their placeholders,
+     * so values can be written between the pieces instead of going through String.format.
+     */
+    private static final class UnitTemplates {
+        final Locale locale;
+        final String[] celsius;
+        final String[] fahrenheit;
+        final String[] kmh;
+        final String[] mph;
+
+        UnitTemplates(Resources resources, Locale locale) {
+            this.locale = locale;
+            celsius = split(resources.getString(R.string.format_temperature_celsius));
+            fahrenheit = split(resources.getString(R.string.format_temperature_fahrenheit));
+            kmh = split(resources.getString(R.string.format_wind_kmh));
+            mph = split(resources.getString(R.string.format_wind_mph));
+        }
+
+        /**
+         * @return The text before, between and after the placeholders of the format.
+         */
+        private static String[] split(String format) {
+            List<String> parts = new ArrayList<>();
+            Matcher matcher = FORMAT_PLACEHOLDER.matcher(format);
+            int start = 0;
+            while (matcher.find()) {
+                parts.add(format.substring(start, matcher.start()));
+                start = matcher.end();
+            }
+            parts.add(format.substring(start));
+            return parts.toArray(new String[parts.size()]);
+        }
+    }
+
+    /*
+     * The lowest and highest condition codes OpenWeatherMap uses, see
+     * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+     */
+    private static final int FIRST_CONDITION_CODE = 200;
+    private static final int LAST_CONDITION_CODE = 962;
+
+    /* Offsets of each resource id within a row of CONDITION_TABLE */
+    private static final int STRING_COLUMN = 0;
+    private static final int ICON_COLUMN = 1;
+    private static final int ART_COLUMN = 2;
+    private static final int COLUMN_COUNT = 3;
+
+    /*
+     * String, icon and art resource ids for every code from FIRST_CONDITION_CODE to
+     * LAST_CONDITION_CODE, one row of COLUMN_COUNT ints per code, so looking a condition up
+     * while binding a row is a single array access instead of a chain of range checks.
+     * Unknown codes have a string and an art id of 0 and an icon id of -1.
+     */
+    private static final int[] CONDITION_TABLE = buildConditionTable();
+
+    private static int[] buildConditionTable() {
+        int codeCount = LAST_CONDITION_CODE - FIRST_CONDITION_CODE + 1;
+        int[] table = new int[codeCount * COLUMN_COUNT];
+        for (int code = FIRST_CONDITION_CODE; code <= LAST_CONDITION_CODE; code++) {
+            int row = (code - FIRST_CONDITION_CODE) * COLUMN_COUNT;
+            table[row + STRING_COLUMN] = computeStringResource(code);
+            table[row + ICON_COLUMN] = computeIconResource(code);
+            table[row + ART_COLUMN] = computeArtResource(code);
+        }
+        return table;
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @param column    One of the *_COLUMN offsets
+     * @param unknown   What to return for codes outside the table
+     * @return The resource id in that column.
+     */
+    private static int lookUpCondition(int weatherId, int column, int unknown) {
+        if (weatherId < FIRST_CONDITION_CODE || weatherId > LAST_CONDITION_CODE) {
+            return unknown;
+        }
+        return CONDITION_TABLE[(weatherId - FIRST_CONDITION_CODE) * COLUMN_COUNT + column];
     }
 
     /**
@@ -126,9 +290,58 @@ public final class SunshineWeatherUtils {
      * @param weatherId from OpenWeatherMap API response
      *                  http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
      *
-     * @return String for the weather condition, null if no relation is found.
+     * @return String for the weather condition, the "unknown" string if no relation is found.
      */
     public static String getStringForWeatherCondition(Context context, int weatherId) {
+        int stringId = getStringResourceForWeatherCondition(weatherId);
+        if (stringId == 0) {
+            return context.getString(R.string.condition_unknown, weatherId);
+        }
+        return context.getString(stringId);
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return resource id of the string for the weather condition, 0 if no relation is found.
+     */
+    public static int getStringResourceForWeatherCondition(int weatherId) {
+        return lookUpCondition(weatherId, STRING_COLUMN, 0);
+    }
+
+    /**
+     * Helper method to provide the icon resource id according to the weather condition
+     * id returned by the OpenWeatherMap call.
+     *
+     * @param weatherId from OpenWeatherMap API response
+     *
+     * @return resource id for the corresponding icon. -1 if no relation is found.
+     */
+    public static int getIconResourceForWeatherCondition(int weatherId) {
+        return lookUpCondition(weatherId, ICON_COLUMN, -1);
+    }
+
+    /**
+     * Helper method to provide the art resource id according to the weather condition id returned
+     * by the OpenWeatherMap call.
+     *
+     * @param weatherId from OpenWeatherMap API response
+     *
+     * @return resource id for the corresponding art. The storm art if no relation is found.
+     */
+    public static int getArtResourceForWeatherCondition(int weatherId) {
+        int artId = lookUpCondition(weatherId, ART_COLUMN, 0);
+        if (artId == 0) {
+            Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
+            return R.drawable.art_storm;
+        }
+        return artId;
+    }
+
+    /*
+     * The mappings below fill CONDITION_TABLE once, they are not used for lookups.
+     */
+
+    private static int computeStringResource(int weatherId) {
         int stringId;
         if (weatherId >= 200 && weatherId <= 232) {
             stringId = R.string.condition_2xx;
@@ -292,20 +505,12 @@ public final class SunshineWeatherUtils {
                 stringId = R.string.condition_962;
                 break;
             default:
-                return context.getString(R.string.condition_unknown, weatherId);
+                return 0;
         }
-        return context.getString(stringId);
+        return stringId;
     }
 
-    /**
-     * Helper method to provide the icon resource id according to the weather condition
-     * id returned by the OpenWeatherMap call.
-     *
-     * @param weatherId from OpenWeatherMap API response
-     *
-     * @return resource id for the corresponding icon. -1 if no relation is found.
-     */
-    public static int getIconResourceForWeatherCondition(int weatherId) {
+    private static int computeIconResource(int weatherId) {
         /*
          * Based on weather code data found at:
          * See http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
@@ -336,15 +541,7 @@ public final class SunshineWeatherUtils {
         return -1;
     }
 
-    /**
-     * Helper method to provide the art resource id according to the weather condition id returned
-     * by the OpenWeatherMap call.
-     *
-     * @param weatherId from OpenWeatherMap API response
-     *
-     * @return resource id for the corresponding icon. -1 if no relation is found.
-     */
-    public static int getArtResourceForWeatherCondition(int weatherId) {
+    private static int computeArtResource(int weatherId) {
         /*
          * Based on weather code data found at:
          * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
@@ -378,9 +575,6 @@ public final class SunshineWeatherUtils {
         } else if (weatherId >= 951 && weatherId <= 957) {
             return R.drawable.art_clear;
         }
-        Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
-        return R.drawable.art_storm;
+        return 0;
     }
-
-
 }
@@ -0,0 +1,173 @@
+package com.example.android.sunshine.Utilities;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * A memory cache of weather icons, decoded at the size they are shown at. Icons are decoded
+ * on a background thread and kept in an LRU bounded by a share of the app's heap, keyed by
+ * resource and size, so binding a row never decodes a PNG on the main thread.
+ */
+public final class WeatherIconCache {
+
+    private static final String TAG = WeatherIconCache.class.getSimpleName();
+
+    /* The share of the heap, in 1/n, the decoded icons may take */
+    private static final int HEAP_FRACTION = 16;
+
+    private static WeatherIconCache sInstance;
+
+    private final Resources mResources;
+
+    /* "resource:size" -> icon, sized in KB */
+    private final LruCache<String, Bitmap> mBitmaps;
+
+    private final Executor mDecodeExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * @param context Used to read the drawables
+     * @return The cache shared by the whole app.
+     */
+    public static synchronized WeatherIconCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherIconCache(context.getApplicationContext().getResources());
+        }
+        return sInstance;
+    }
+
+    private WeatherIconCache(Resources resources) {
+        mResources = resources;
+        int maxSizeKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / HEAP_FRACTION);
+        mBitmaps = new LruCache<String, Bitmap>(maxSizeKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+    }
+
+    /**
+     * Shows the icon in the view: right away if it is cached, otherwise once it has been
+     * decoded in the background. If the view is re-bound to another icon in the meantime,
+     * the late icon is not shown.
+     *
+     * @param resId  The drawable to show, -1 to clear the view
+     * @param size   The size it is shown at, in pixels
+     * @param target The view to show it in
+     */
+    public void load(int resId, int size, final ImageView target) {
+        if (resId == -1) {
+            target.setTag(null);
+            target.setImageDrawable(null);
+            return;
+        }
+
+        final String key = key(resId, size);
+        target.setTag(key);
+
+        Bitmap bitmap = mBitmaps.get(key);
+        if (bitmap != null) {
+            target.setImageBitmap(bitmap);
+            return;
+        }
+
+        target.setImageDrawable(null);
+        final int decodeResId = resId;
+        final int decodeSize = size;
+        mDecodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap decoded = getOrDecode(decodeResId, decodeSize);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (decoded != null && key.equals(target.getTag())) {
+                            target.setImageBitmap(decoded);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Decodes the icon into the cache if it isn't there yet. Blocks, so it must not be called
+     * on the main thread.
+     *
+     * @param resId The drawable to decode, -1 is ignored
+     * @param size  The size it is shown at, in pixels
+     */
+    public void preload(int resId, int size) {
+        if (resId != -1) {
+            getOrDecode(resId, size);
+        }
+    }
+
+    private Bitmap getOrDecode(int resId, int size) {
+        String key = key(resId, size);
+        Bitmap bitmap = mBitmaps.get(key);
+        if (bitmap == null) {
+            bitmap = decode(resId, size);
+            if (bitmap != null) {
+                mBitmaps.put(key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes the drawable with the largest power of two subsampling that still leaves it at
+     * least as big as requested, then scales it to the exact size.
+     */
+    private Bitmap decode(int resId, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(mResources, resId, options);
+
+        int inSampleSize = 1;
+        while (options.outWidth / (inSampleSize * 2) >= size
+                && options.outHeight / (inSampleSize * 2) >= size) {
+            inSampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = inSampleSize;
+        Bitmap bitmap = BitmapFactory.decodeResource(mResources, resId, options);
+        if (bitmap == null) {
+            Log.w(TAG, "Could not decode " + mResources.getResourceEntryName(resId));
+            return null;
+        }
+        if (bitmap.getWidth() == size && bitmap.getHeight() == size) {
+            return bitmap;
+        }
+
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, size, size, true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    private static String key(int resId, int size) {
+        return resId + ":" + size;
+    }
+
+    @Override
+    public String toString() {
+        return "WeatherIconCache[size=" + mBitmaps.size() + "KB, max=" + mBitmaps.maxSize()
+                + "KB, hits=" + mBitmaps.hitCount() + ", misses=" + mBitmaps.missCount()
+                + ", evictions=" + mBitmaps.evictionCount() + "]";
+    }
+}